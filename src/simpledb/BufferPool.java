@@ -1,8 +1,12 @@
 package simpledb;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -12,17 +16,134 @@ import java.util.Map;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool which check that the transaction has the appropriate
  * locks to read/write the page.
+ * <p/>
+ * The BufferPool can also read ahead: once a transaction fetches two
+ * consecutive pages of a file, the next pages are read on background
+ * threads, so that a sequential scan finds them in the pool instead of
+ * waiting for one read per page.
+ * <p/>
+ * Tables may have pages larger than PAGE_SIZE (see
+ * {@link Catalog#getPageSize}); such a page takes up as many of the pool's
+ * pages as it holds PAGE_SIZE bytes of tuples.
+ * <p/>
+ * When the pool is full, pages are evicted to make room, as chosen by a
+ * {@link ReplacementPolicy}: CLOCK unless another one is given, such as
+ * {@link TwoQueuePolicy}, which keeps scans from flushing the pages that
+ * are used over and over again.  The pool can also be cut into partitions
+ * with a policy of their own, that keep the pages of the tables assigned
+ * to them apart from the others (see {@link #createPartition}).  Dirty
+ * pages are written back with DbFile.writePage before they go, but a
+ * background writer writes them back ahead of time, once they take up
+ * more than a given share of the pool, so that evictions mostly find clean
+ * pages.  It writes them sorted by table and page number, each run of
+ * consecutive pages with a single DbFile.writePages.  Pinned pages (see
+ * {@link #pinPage}) and pages still being read ahead are never evicted, so
+ * a fetch only fails when all of the pool, or of the partition of its
+ * table, is held that way.
+ * <p/>
+ * Fetching a page that is in the pool takes no lock: the page table is a
+ * ConcurrentHashMap, and the uses of pages are queued for the replacement
+ * policy, which only sees them the next time a page is read or the queue
+ * fills up.  A page that is not in the pool is read by the first thread
+ * to miss it, which registers a future for it; the threads that miss it
+ * meanwhile, or find it being read ahead, wait on that future instead of
+ * reading it again, and misses on other pages go ahead.  The pool's own
+ * lock is only held to make room, to put pages in and to track reads
+ * ahead, never while a page is read.
+ * <p/>
+ * The bytes of the HeapPages in the pool are kept in the frames of a
+ * {@link FrameArena}, allocated outside of the Java heap when the pool is
+ * made: a page is moved into a frame when it is put in the pool, and
+ * decodes its tuples from there.  Pages of other kinds, pages that don't
+ * fit in a frame and pages already outside of the heap, such as those of
+ * a MappedHeapFile, stay where they are.  A page that leaves the pool is
+ * moved back to the heap before its frame is reused, so that it stays
+ * valid for whoever still holds it.
+ * <p/>
+ * The pool counts its hits, misses and evictions and times its reads and
+ * writes.  The counts are available as a {@link BufferPoolStats} snapshot
+ * and through JMX (see {@link BufferPoolMXBean}).
  */
-public class BufferPool {
+public class BufferPool implements BufferPoolMXBean {
     /**
-     * Bytes per page, excluding header.
+     * Bytes per page, excluding header, unless the table says otherwise.
      */
     public static final int PAGE_SIZE = 4096;
     public static final int DEFAULT_PAGES = 100;
 
-    private final int numPages;
-    private final Map<PageId, Page> pageCache = new HashMap<PageId, Page>();
+    /**
+     * Number of threads reading pages ahead.
+     */
+    static final int READ_AHEAD_THREADS = 4;
+
+    /**
+     * Name of the partition that holds the pages of the tables not
+     * assigned to another one.
+     */
+    public static final String DEFAULT_PARTITION = "default";
+
+    /**
+     * Share of the pool that dirty pages may take up before the background
+     * writer writes them back, unless the pool is given another one.
+     */
+    public static final double DEFAULT_DIRTY_RATIO = 0.5;
+
+    /**
+     * Milliseconds between two looks of the background writer at the pool.
+     */
+    static final long WRITER_INTERVAL_MS = 100;
+
+    /**
+     * Orders pages by table and page number.
+     */
+    private static final Comparator<Page> BY_PAGENO = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            if (a.id().tableid() != b.id().tableid()) {
+                return a.id().tableid() < b.id().tableid() ? -1 : 1;
+            }
+            return a.id().pageno() - b.id().pageno();
+        }
+    };
+
+    /**
+     * Number of page uses queued for the replacement policy; more are
+     * dropped until the queue has been drained.
+     */
+    static final int MAX_PENDING_ACCESSES = 1024;
 
+    /**
+     * Bytes in a frame of the arena: a PAGE_SIZE page of the smallest
+     * tuples, a single INT, and its header.
+     */
+    static final int FRAME_SIZE = PAGE_SIZE + (PAGE_SIZE / Type.INT_TYPE.getLen() / HeapPage.INTEGER_SIZE + 1) * 4;
+
+    private final int numPages;
+    private final int readAhead;
+    private final ConcurrentMap<PageId, Page> pageCache = new ConcurrentHashMap<PageId, Page>();
+    private final ConcurrentMap<PageId, Future<?>> loading =
+            new ConcurrentHashMap<PageId, Future<?>>(); // pages being read, on demand or ahead
+    private final Map<Integer, Integer> lastPageno = new ConcurrentHashMap<Integer, Integer>(); // last page fetched, by table
+    private ExecutorService readers; // started on the first read ahead
+    private final Partition defaultPartition;
+    private final Map<String, Partition> partitions = new HashMap<String, Partition>(); // by name; guarded by this
+    private final Map<Integer, Partition> partitionOf =
+            new HashMap<Integer, Partition>(); // of the tables not in the default partition; guarded by this
+    private final Queue<PageId> accesses = new ConcurrentLinkedQueue<PageId>(); // uses not yet told to the policy
+    private final AtomicInteger pendingAccesses = new AtomicInteger(); // size of accesses
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final FrameArena arena;
+    private final Map<PageId, Integer> frameOf = new HashMap<PageId, Integer>(); // arena frames of the cached pages
+    private final Map<PageId, Integer> pins = new HashMap<PageId, Integer>(); // pin counts of pinned pages
+    private final Map<TransactionId, Map<PageId, Integer>> pinsByTid =
+            new HashMap<TransactionId, Map<PageId, Integer>>(); // the part of pins made by each transaction
+    private final Map<Integer, Integer> frames = new ConcurrentHashMap<Integer, Integer>(); // pool pages per page, by table
+    private final double dirtyRatio;
+    private final Object writerSignal = new Object(); // notified to wake the background writer up
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
 
     /**
      * Constructor.
@@ -30,7 +151,113 @@ public class BufferPool {
      * @param numPages number of pages in this buffer pool
      */
     public BufferPool(int numPages) {
+        this(numPages, 0);
+    }
+
+    /**
+     * Constructor.
+     * Creates a buffer pool that reads up to readAhead pages ahead of
+     * sequential scans.  Pages being read ahead can't be evicted, so read
+     * ahead never holds the last readAhead pages of the pool.
+     *
+     * @param numPages  number of pages in this buffer pool
+     * @param readAhead number of pages to read ahead, 0 for none
+     */
+    public BufferPool(int numPages, int readAhead) {
+        this(numPages, readAhead, new ClockPolicy());
+    }
+
+    /**
+     * Constructor.
+     * Creates a buffer pool that chooses the pages to evict with the given
+     * policy, which must not be shared with another pool.
+     *
+     * @param numPages  number of pages in this buffer pool
+     * @param readAhead number of pages to read ahead, 0 for none
+     * @param policy    the replacement policy
+     */
+    public BufferPool(int numPages, int readAhead, ReplacementPolicy policy) {
+        this(numPages, readAhead, policy, DEFAULT_DIRTY_RATIO);
+    }
+
+    /**
+     * Constructor.
+     * Creates a buffer pool whose background writer writes the dirty pages
+     * back once they take up more than dirtyRatio of the pool.  With a
+     * ratio of 1 or more there is no writer, and dirty pages are only
+     * written when they are evicted or flushed.
+     *
+     * @param numPages   number of pages in this buffer pool
+     * @param readAhead  number of pages to read ahead, 0 for none
+     * @param policy     the replacement policy
+     * @param dirtyRatio the share of the pool dirty pages may take up
+     */
+    public BufferPool(int numPages, int readAhead, ReplacementPolicy policy, double dirtyRatio) {
         this.numPages = numPages;
+        this.readAhead = readAhead;
+        this.defaultPartition = new Partition(DEFAULT_PARTITION, numPages, policy);
+        this.partitions.put(DEFAULT_PARTITION, this.defaultPartition);
+        this.arena = new FrameArena(numPages, FRAME_SIZE);
+        this.dirtyRatio = dirtyRatio;
+        if (dirtyRatio < 1) {
+            Thread writer = new Thread(new Writer(this), "page-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * A share of the pool's pages, with its own replacement policy, where
+     * the pages of the tables assigned to it are kept.  The capacities of
+     * the partitions add up to the pages of the pool.
+     */
+    private static class Partition {
+        final String name;
+        final ReplacementPolicy policy; // over the cached pages of the partition
+        int capacity; // PAGE_SIZE pages
+        int used; // PAGE_SIZE pages taken by the cached pages and pages being read
+
+        Partition(String name, int capacity, ReplacementPolicy policy) {
+            this.name = name;
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * The background writer of a pool.  It only holds on to the pool while
+     * it writes, so that a pool nobody uses anymore, such as one replaced
+     * by Database.resetBufferPool, can be collected, and the writer then
+     * stops.
+     */
+    private static class Writer implements Runnable {
+        private final WeakReference<BufferPool> pool;
+        private final Object signal;
+
+        Writer(BufferPool pool) {
+            this.pool = new WeakReference<BufferPool>(pool);
+            this.signal = pool.writerSignal;
+        }
+
+        public void run() {
+            while (true) {
+                BufferPool pool = this.pool.get();
+                if (pool == null) return;
+                try {
+                    pool.writeBehind();
+                } catch (IOException e) {
+                    // the pages stay dirty, and the eviction that writes them reports it
+                }
+                pool = null;
+                synchronized (this.signal) {
+                    try {
+                        this.signal.wait(WRITER_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -44,24 +271,594 @@ public class BufferPool {
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
      *
+     * @throws DbException if every page that could be evicted is pinned.
      * @param tid  the ID of the transaction requesting the page
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        if (this.pageCache.containsKey(pid)) return this.pageCache.get(pid);
+        boolean missed = false;
+        while (true) {
+            Page page = this.pageCache.get(pid);
+            if (page != null) {
+                if (!missed) this.hits.incrementAndGet();
+                accessed(pid);
+                readAhead(pid);
+                return page;
+            }
+            if (!missed) {
+                this.misses.incrementAndGet();
+                missed = true;
+            }
+            Future<?> pending = this.loading.get(pid);
+            if (pending == null) {
+                page = load(pid);
+                if (page != null) {
+                    readAhead(pid);
+                    return page;
+                }
+            } else {
+                // being read by another thread, which puts it in the pool
+                await(pid, pending);
+            }
+        }
+    }
 
-        if (this.numPages == this.pageCache.size()) {
-            throw new DbException(
-                    "More than " + this.numPages + " requests are made for different pages");
+    /**
+     * Waits until a page being read is in the pool.
+     *
+     * @return the result of the read.
+     * @throws DbException if the page could not be read.
+     */
+    private static <T> T await(PageId pid, Future<T> pending) throws DbException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while waiting for page " + pid.pageno());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof DbException) throw (DbException) e.getCause();
+            throw new DbException("can't read page " + pid.pageno() + ": " + e.getCause());
         }
-        DbFile dbFile = Database.getCatalog().getDbFile(pid.tableid());
-        Page page = dbFile.readPage(pid);
-        this.pageCache.put(pid, page);
+    }
+
+    /**
+     * Queues a use of a page in the pool for the replacement policy, or
+     * drains the queue if it is full.  Only one thread drains at a time;
+     * the others drop their uses meanwhile rather than wait.
+     */
+    private void accessed(PageId pid) {
+        if (this.pendingAccesses.get() < MAX_PENDING_ACCESSES) {
+            this.pendingAccesses.incrementAndGet();
+            this.accesses.offer(pid);
+        } else if (this.draining.compareAndSet(false, true)) {
+            try {
+                synchronized (this) {
+                    drainAccesses();
+                }
+            } finally {
+                this.draining.set(false);
+            }
+        }
+    }
+
+    /**
+     * Tells the replacement policy about the queued uses of pages.
+     */
+    private void drainAccesses() {
+        PageId pid;
+        while ((pid = this.accesses.poll()) != null) {
+            this.pendingAccesses.decrementAndGet();
+            partition(pid.tableid()).policy.accessed(pid);
+        }
+    }
+
+    /**
+     * Reads a page that is not in the pool into it, unless another thread
+     * started reading it first.  The threads that miss the page while it
+     * is read wait for this one.
+     *
+     * @return the page in the pool, or null if another thread is reading
+     *         it.
+     */
+    private Page load(final PageId pid) throws DbException {
+        FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                return read(pid);
+            }
+        });
+        if (this.loading.putIfAbsent(pid, task) != null) {
+            return null;
+        }
+        try {
+            task.run();
+        } finally {
+            this.loading.remove(pid, task);
+        }
+        return await(pid, task);
+    }
+
+    /**
+     * Reads a page into the pool for load, unless it got there since it
+     * was missed.
+     */
+    private Page read(PageId pid) throws DbException {
+        Page page = this.pageCache.get(pid);
+        if (page != null) {
+            accessed(pid);
+            return page;
+        }
+        int frames = frames(pid.tableid());
+        Partition partition = reserve(pid.tableid(), frames);
+        boolean read = false;
+        long start = System.nanoTime();
+        try {
+            page = Database.getCatalog().getDbFile(pid.tableid()).readPage(pid);
+            read = true;
+        } finally {
+            this.readLatency.record(System.nanoTime() - start);
+            if (!read) release(partition, frames);
+        }
+        return install(page, partition, frames);
+    }
+
+    /**
+     * Evicts pages from the partition of the given table until the given
+     * number of PAGE_SIZE pages is free there, and takes them for a page
+     * about to be read.  Dirty pages are written without the pool's lock.
+     *
+     * @return the partition the pages were taken from.
+     */
+    private Partition reserve(int tableid, int frames) throws DbException {
+        List<Page> dirty = new ArrayList<Page>(1);
+        while (true) {
+            synchronized (this) {
+                drainAccesses();
+                Partition partition = partition(tableid);
+                if (partition.capacity >= partition.used + frames) {
+                    partition.used += frames;
+                    return partition;
+                }
+                evictPage(partition, dirty);
+            }
+            writeEvicted(dirty);
+        }
+    }
+
+    /**
+     * Gives back PAGE_SIZE pages taken by reserve for a page that could not
+     * be read.
+     */
+    private synchronized void release(Partition partition, int frames) {
+        partition.used -= frames;
+    }
+
+    /**
+     * Puts a page that was read into the frames reserved for it, unless the
+     * page got into the pool in the meantime.  If its table was assigned to
+     * another partition while it was read, the frames move there with it.
+     *
+     * @return the page in the pool.
+     */
+    private synchronized Page install(Page page, Partition reserved, int frames) {
+        Page cached = this.pageCache.putIfAbsent(page.id(), page);
+        if (cached != null) {
+            reserved.used -= frames;
+            return cached;
+        }
+        Partition partition = partition(page.id().tableid());
+        reserved.used -= frames;
+        partition.used += frames;
+        moveToFrame(page);
+        partition.policy.added(page.id());
         return page;
     }
 
+    /**
+     * @return the partition holding the pages of the given table.
+     */
+    private Partition partition(int tableid) {
+        Partition partition = this.partitionOf.get(tableid);
+        return partition == null ? this.defaultPartition : partition;
+    }
+
+    /**
+     * Moves a page that was put in the pool into a frame of the arena, if
+     * it is a HeapPage that is on the heap and fits.  There is always a
+     * free frame, since every page in a frame takes up at least one page of
+     * the pool.
+     */
+    private void moveToFrame(Page page) {
+        if (!(page instanceof HeapPage) || ((HeapPage) page).isOffHeap()) return;
+        int frame = this.arena.allocate();
+        if (frame < 0) return;
+        if (((HeapPage) page).moveTo(this.arena.frame(frame))) {
+            this.frameOf.put(page.id(), frame);
+        } else {
+            this.arena.free(frame);
+        }
+    }
+
+    /**
+     * Gives back the arena frame of a page that is leaving the pool, if it
+     * has one, after moving the page back to the heap.
+     */
+    private void freeFrame(Page page) {
+        if (page == null) return;
+        Integer frame = this.frameOf.remove(page.id());
+        if (frame != null) {
+            ((HeapPage) page).moveToHeap();
+            this.arena.free(frame);
+        }
+    }
+
+    /**
+     * Notes that pid was fetched, and if it follows the page fetched before
+     * it from the same table, starts reading the pages after it that are
+     * not in the pool yet.  Pages are read in runs with DbFile.readPages,
+     * so nothing is read until a good part of the pages ahead is missing.
+     * Pages are evicted to make room for them, but read ahead always leaves
+     * readAhead pages of the partition of the table that are neither
+     * pinned nor being read.
+     * The pool's lock is only taken once there is something to read.
+     */
+    private void readAhead(PageId pid) throws DbException {
+        if (this.readAhead == 0) return;
+        Integer last = this.lastPageno.put(pid.tableid(), pid.pageno());
+        if (last == null || last != pid.pageno() - 1) return;
+
+        DbFile dbFile = Database.getCatalog().getDbFile(pid.tableid());
+        int end = Math.min(pid.pageno() + this.readAhead, dbFile.numPages() - 1);
+        int from = pid.pageno() + 1;
+        while (from <= end && isPresent(new HeapPageId(pid.tableid(), from))) from++;
+        if (from > end) return;
+        if (from > pid.pageno() + 1 && end - from + 1 < (this.readAhead + 1) / 2) return;
+        startReadAhead(dbFile, new HeapPageId(pid.tableid(), from), end);
+    }
+
+    /**
+     * Starts reading the missing pages from the given one up to end, as
+     * far as the pool has room for them and no other thread starts reading
+     * one of them first.
+     */
+    private synchronized void startReadAhead(final DbFile dbFile, final PageId first, int end)
+            throws DbException {
+        drainAccesses();
+        final Partition partition = partition(first.tableid());
+        final int frames = frames(first.tableid());
+        int count = 0;
+        while (first.pageno() + count <= end
+                && !isPresent(new HeapPageId(first.tableid(), first.pageno() + count))) {
+            count++;
+        }
+        count = Math.min(count, (partition.capacity - this.readAhead - heldFrames(partition)) / frames);
+        // the first dirty victim is left to the background writer rather
+        // than written while the lock is held, and the pages that fit
+        // without it are read; going on would pass over the dirty pages
+        // and evict the ones the policy keeps
+        List<Page> dirty = new ArrayList<Page>(1);
+        while (count > 0 && partition.capacity < partition.used + count * frames) {
+            if (!evictOne(partition, dirty)) {
+                count--;
+            } else if (!dirty.isEmpty()) {
+                count = Math.max(0, (partition.capacity - partition.used) / frames);
+            }
+        }
+        if (!dirty.isEmpty()) {
+            count(this.pins, dirty.get(0).id(), -1);
+            wakeWriter();
+        }
+        if (count <= 0) return;
+
+        // demand misses register their pages without the lock
+        final int[] n = new int[1];
+        final FutureTask<Void> run = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() {
+                List<Page> pages = null;
+                long start = System.nanoTime();
+                try {
+                    pages = dbFile.readPages(first, n[0]);
+                    return null;
+                } finally {
+                    BufferPool.this.readLatency.record(System.nanoTime() - start);
+                    synchronized (BufferPool.this) {
+                        if (pages != null) {
+                            for (Page page : pages) {
+                                install(page, partition, frames);
+                            }
+                        } else {
+                            partition.used -= n[0] * frames;
+                        }
+                    }
+                }
+            }
+        }) {
+            protected void done() {
+                for (int i = 0; i < n[0]; i++) {
+                    BufferPool.this.loading.remove(new HeapPageId(first.tableid(), first.pageno() + i), this);
+                }
+            }
+        };
+        while (n[0] < count
+                && this.loading.putIfAbsent(new HeapPageId(first.tableid(), first.pageno() + n[0]), run) == null) {
+            n[0]++;
+        }
+        if (n[0] == 0) return;
+        partition.used += n[0] * frames;
+        readers().execute(run);
+    }
+
+    /**
+     * @return the number of PAGE_SIZE pages that a page of the specified
+     *         table takes up in the pool.  It is remembered, so that the
+     *         pages of a table that has been dropped can still be evicted.
+     */
+    private int frames(int tableid) {
+        Integer frames = this.frames.get(tableid);
+        if (frames == null) {
+            int pageSize = Database.getCatalog().getPageSize(tableid);
+            frames = Math.max(1, (pageSize + PAGE_SIZE - 1) / PAGE_SIZE);
+            this.frames.put(tableid, frames);
+        }
+        return frames;
+    }
+
+    /**
+     * @return the number of PAGE_SIZE pages of a partition that can't be
+     *         evicted: those taken by pinned pages and pages being read.
+     */
+    private int heldFrames(Partition partition) {
+        int held = 0;
+        for (PageId pid : this.pins.keySet()) {
+            if (partition(pid.tableid()) == partition) held += frames(pid.tableid());
+        }
+        for (PageId pid : this.loading.keySet()) {
+            if (partition(pid.tableid()) == partition) held += frames(pid.tableid());
+        }
+        return held;
+    }
+
+    private boolean isPresent(PageId pid) {
+        return this.pageCache.containsKey(pid) || this.loading.containsKey(pid);
+    }
+
+    private ExecutorService readers() {
+        if (this.readers == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(READ_AHEAD_THREADS, READ_AHEAD_THREADS,
+                    1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "read-ahead");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            this.readers = pool;
+        }
+        return this.readers;
+    }
+
+    /**
+     * Creates a partition of the pool, with its own replacement policy,
+     * that the pages of the tables assigned to it are kept in, so that
+     * they are only evicted to make room for each other.  Its pages are
+     * taken from the default partition, which holds the pages of all other
+     * tables: the pool takes no more memory.  Giving the small tables used
+     * by every query a partition of their own keeps scans of a large table
+     * from evicting them.
+     *
+     * @param name     the name of the partition
+     * @param numPages the number of pages of the partition
+     * @param policy   the replacement policy of the partition, not shared
+     *                 with another partition or pool
+     * @throws DbException if there is a partition of the same name, if the
+     *                     default partition would be left with no pages,
+     *                     or if it can't evict enough of its pages.
+     * @see #assignTable
+     */
+    public void createPartition(String name, int numPages, ReplacementPolicy policy)
+            throws DbException {
+        List<Page> dirty = new ArrayList<Page>(1);
+        while (true) {
+            synchronized (this) {
+                if (this.partitions.containsKey(name)) {
+                    throw new DbException("there is already a partition named " + name);
+                }
+                Partition shrunk = this.defaultPartition;
+                if (numPages < 1 || numPages >= shrunk.capacity) {
+                    throw new DbException("can't take " + numPages + " of the " + shrunk.capacity
+                            + " pages of the default partition");
+                }
+                drainAccesses();
+                if (shrunk.used <= shrunk.capacity - numPages) {
+                    shrunk.capacity -= numPages;
+                    this.partitions.put(name, new Partition(name, numPages, policy));
+                    return;
+                }
+                evictPage(shrunk, dirty);
+            }
+            writeEvicted(dirty);
+        }
+    }
+
+    /**
+     * Assigns a table to a partition of the pool: the table's pages in the
+     * pool move to it, and the pages it fetches later are kept there.
+     *
+     * @param tableid   the id of a table of the Catalog
+     * @param partition the name of the partition, DEFAULT_PARTITION to
+     *                  take the table back to the default one
+     * @throws NoSuchElementException if the table or the partition does not
+     *                                exist.
+     * @throws DbException if the partition can't evict enough pages to
+     *                     make room for the table's.
+     */
+    public void assignTable(int tableid, String partition) throws DbException {
+        Partition to = move(tableid, partition);
+        List<Page> dirty = new ArrayList<Page>(1);
+        while (true) {
+            synchronized (this) {
+                if (to.used <= to.capacity) return;
+                evictPage(to, dirty);
+            }
+            writeEvicted(dirty);
+        }
+    }
+
+    /**
+     * Does the work of assignTable, but for the evictions.
+     *
+     * @return the partition the table's pages moved to.
+     */
+    private synchronized Partition move(int tableid, String partition) {
+        Database.getCatalog().getDbFile(tableid);
+        Partition to = this.partitions.get(partition);
+        if (to == null) {
+            throw new NoSuchElementException("no partition named " + partition);
+        }
+        Partition from = partition(tableid);
+        if (from == to) return to;
+
+        // the table's pages go over in the order the old policy would evict
+        // them, so that the new one keeps the ones used last
+        drainAccesses();
+        Set<PageId> others = new HashSet<PageId>(this.pins.keySet());
+        List<PageId> pinned = new ArrayList<PageId>();
+        for (PageId pid : this.pageCache.keySet()) {
+            if (pid.tableid() != tableid) {
+                others.add(pid);
+            } else if (this.pins.containsKey(pid)) {
+                pinned.add(pid);
+            }
+        }
+        List<PageId> moved = new ArrayList<PageId>();
+        PageId next;
+        while ((next = from.policy.evict(others)) != null) {
+            moved.add(next);
+        }
+        for (PageId pid : pinned) {
+            from.policy.removed(pid);
+            moved.add(pid); // in use, so last
+        }
+        for (PageId pid : moved) {
+            from.used -= frames(tableid);
+            to.policy.added(pid);
+            to.used += frames(tableid);
+        }
+        if (to == this.defaultPartition) {
+            this.partitionOf.remove(tableid);
+        } else {
+            this.partitionOf.put(tableid, to);
+        }
+        return to;
+    }
+
+    /**
+     * @return the name of the partition of the pool the pages of the given
+     *         table are kept in.
+     */
+    public synchronized String partitionOf(int tableid) {
+        return partition(tableid).name;
+    }
+
+    /**
+     * Retrieves a page as getPage does and pins it, in one step, so that
+     * it can't be evicted in between.  The page stays in the pool until
+     * the transaction has unpinned it as many times as it pinned it, or
+     * completes.  Iterators pin the page they are on, so that a small pool
+     * never evicts the pages that scans and joins are reading.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @see #unpinPage(TransactionId, PageId)
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        while (true) {
+            Page page = getPage(tid, pid, perm);
+            synchronized (this) {
+                if (this.pageCache.get(pid) == page) {
+                    count(this.pins, pid, 1);
+                    if (tid != null) {
+                        Map<PageId, Integer> pins = this.pinsByTid.get(tid);
+                        if (pins == null) {
+                            pins = new HashMap<PageId, Integer>();
+                            this.pinsByTid.put(tid, pins);
+                        }
+                        count(pins, pid, 1);
+                    }
+                    return page;
+                }
+            }
+            // evicted before it could be pinned
+        }
+    }
+
+    /**
+     * Pins a page in the pool on behalf of no transaction: it is not
+     * evicted until it has been unpinned as many times as it was pinned.
+     *
+     * @param pid the ID of a page in the pool
+     * @throws NoSuchElementException if the page is not in the pool.
+     */
+    public synchronized void pinPage(PageId pid) {
+        if (!this.pageCache.containsKey(pid)) {
+            throw new NoSuchElementException("page " + pid.pageno() + " is not in the pool");
+        }
+        count(this.pins, pid, 1);
+    }
+
+    /**
+     * Undoes one pinPage of the specified page by the transaction.  Does
+     * nothing if the transaction holds no pin on the page anymore, as when
+     * it completed before an iterator it opened was closed.
+     *
+     * @param tid the transaction that pinned the page
+     * @param pid the ID of a page pinned by tid
+     */
+    public synchronized void unpinPage(TransactionId tid, PageId pid) {
+        if (tid == null) {
+            count(this.pins, pid, -1);
+            return;
+        }
+        Map<PageId, Integer> pins = this.pinsByTid.get(tid);
+        if (pins == null || !pins.containsKey(pid)) return;
+        count(pins, pid, -1);
+        if (pins.isEmpty()) this.pinsByTid.remove(tid);
+        count(this.pins, pid, -1);
+    }
+
+    /**
+     * Undoes one pinPage(PageId) of the specified page.
+     *
+     * @param pid the ID of a pinned page
+     * @throws NoSuchElementException if the page is not pinned.
+     */
+    public synchronized void unpinPage(PageId pid) {
+        if (!this.pins.containsKey(pid)) {
+            throw new NoSuchElementException("page " + pid.pageno() + " is not pinned");
+        }
+        count(this.pins, pid, -1);
+    }
+
+    /**
+     * Adds delta to the count of a page, or other key, dropping counts that
+     * fall to 0.  Counts of pages that have been discarded are not tracked
+     * anymore.
+     */
+    private static <K> void count(Map<K, Integer> counts, K key, int delta) {
+        Integer count = counts.get(key);
+        if (count == null && delta < 0) return;
+        int n = (count == null ? 0 : count) + delta;
+        if (n <= 0) {
+            counts.remove(key);
+        } else {
+            counts.put(key, n);
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -81,7 +878,7 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public synchronized void transactionComplete(TransactionId tid) throws IOException {
-        // not necessary for this project
+        transactionComplete(tid, true);
     }
 
     /**
@@ -94,41 +891,82 @@ public class BufferPool {
 
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction, and the pins it still holds, such as those of
+     * iterators that were not closed.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public synchronized void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-        // not necessary for this project
+        Map<PageId, Integer> pins = this.pinsByTid.remove(tid);
+        if (pins == null) return;
+        for (Map.Entry<PageId, Integer> pin : pins.entrySet()) {
+            count(this.pins, pin.getKey(), -pin.getValue());
+        }
     }
 
     /**
      * Add a tuple to the specified table behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to. May block if
-     * the lock cannot be acquired.
+     * the lock cannot be acquired.  The pages the file changes are marked
+     * dirty by tid, and kept in the pool even if they were evicted while
+     * the file was changing them.
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t       the tuple to add
      */
-    public synchronized void insertTuple(TransactionId tid, int tableId, Tuple t)
+    public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // not necessary for this project
+        for (Page page : Database.getCatalog().getDbFile(tableId).addTuple(tid, t)) {
+            page.markDirty(true, tid);
+            keep(page);
+        }
     }
 
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is added to. May block if
-     * the lock cannot be acquired.
+     * the lock cannot be acquired.  The page is marked dirty by tid, and
+     * kept in the pool even if it was evicted while the file was changing
+     * it, like the pages of insertTuple.
      *
-     * @param tid the transaction adding the tuple.
-     * @param t   the tuple to add
+     * @param tid the transaction deleting the tuple.
+     * @param t   the tuple to delete
      */
-    public synchronized void deleteTuple(TransactionId tid, Tuple t)
+    public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, TransactionAbortedException {
-        // not necessary for this project
+        int tableId = t.getRecordID().pageid().tableid();
+        Page page = Database.getCatalog().getDbFile(tableId).deleteTuple(tid, t);
+        page.markDirty(true, tid);
+        keep(page);
+    }
+
+    /**
+     * Puts a page a file has just changed back in the pool, in place of
+     * the copy read again if it was evicted in the meantime.  If no copy is
+     * left, the page takes frames of its partition as if it was read,
+     * which may evict another page.
+     */
+    private void keep(Page page) throws DbException {
+        PageId pid = page.id();
+        int frames = frames(pid.tableid());
+        while (true) {
+            synchronized (this) {
+                Page cached = this.pageCache.get(pid);
+                if (cached != null) {
+                    if (cached != page) {
+                        // read again after page was evicted; page itself is on the heap
+                        this.pageCache.put(pid, page);
+                        freeFrame(cached);
+                        moveToFrame(page);
+                    }
+                    return;
+                }
+            }
+            if (install(page, reserve(pid.tableid(), frames), frames) == page) return;
+        }
     }
 
     /**
@@ -136,9 +974,8 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        // not necessary for this project
-
+    public void flushAllPages() throws IOException {
+        writeBack(dirtyPages(null));
     }
 
     /**
@@ -148,30 +985,282 @@ public class BufferPool {
      * cache.
      */
     public synchronized void discardPage(PageId pid) {
-        // not necessary for this project
+        Page page = this.pageCache.remove(pid);
+        if (page != null) {
+            freeFrame(page);
+            Partition partition = partition(pid.tableid());
+            partition.used -= frames(pid.tableid());
+            partition.policy.removed(pid);
+            this.pins.remove(pid);
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Removes the pages of a table numbered from the given one on from the
+     * buffer pool.  A file that writes pages past its end without going
+     * through the pool calls this before it counts them, so that no copy
+     * of those pages fetched earlier, such as the empty page read past the
+     * end of the file, hides them.
      *
-     * @param pid an ID indicating the page to flush
+     * @param tableid the table whose pages to remove
+     * @param pageno  the number of the first page to remove
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        // not necessary for this project
+    public synchronized void discardPages(int tableid, int pageno) {
+        for (PageId pid : this.pageCache.keySet()) {
+            if (pid.tableid() == tableid && pid.pageno() >= pageno) {
+                discardPage(pid);
+            }
+        }
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        // not necessary for this project
+    public void flushPages(TransactionId tid) throws IOException {
+        writeBack(dirtyPages(tid));
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Writes the dirty pages back for the background writer, if they take
+     * up more than dirtyRatio of the pool.
      */
-    private synchronized void evictPage() throws DbException {
-        // not necessary for this project
+    private void writeBehind() throws IOException {
+        List<Page> dirty = dirtyPages(null);
+        int frames = 0;
+        for (Page page : dirty) {
+            frames += frames(page.id().tableid());
+        }
+        if (frames > this.dirtyRatio * this.numPages) {
+            writeBack(dirty);
+        }
+    }
+
+    /**
+     * @return the dirty pages in the pool, only those last dirtied by the
+     *         given transaction unless it is null.
+     */
+    private List<Page> dirtyPages(TransactionId tid) {
+        List<Page> dirty = new ArrayList<Page>();
+        for (Page page : this.pageCache.values()) {
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null && (tid == null || tid.equals(dirtier))) {
+                dirty.add(page);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Writes pages back to their files, sorted by table and page number,
+     * with one DbFile.writePages for each run of consecutive pages.  The
+     * pages are pinned meanwhile, so that none of them is evicted, and
+     * read again, before it is on disk.  The pool's lock is not held while
+     * they are written.
+     */
+    private void writeBack(List<Page> pages) throws IOException {
+        List<Page> pinned = new ArrayList<Page>();
+        synchronized (this) {
+            for (Page page : pages) {
+                if (this.pageCache.get(page.id()) == page && page.isDirty() != null) {
+                    count(this.pins, page.id(), 1);
+                    pinned.add(page);
+                }
+            }
+        }
+        try {
+            Collections.sort(pinned, BY_PAGENO);
+            int start = 0;
+            while (start < pinned.size()) {
+                PageId first = pinned.get(start).id();
+                int end = start + 1;
+                while (end < pinned.size() && pinned.get(end).id().tableid() == first.tableid()
+                        && pinned.get(end).id().pageno() == first.pageno() + end - start) {
+                    end++;
+                }
+                writeRun(pinned.subList(start, end));
+                start = end;
+            }
+        } finally {
+            synchronized (this) {
+                for (Page page : pinned) {
+                    count(this.pins, page.id(), -1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes consecutive pages of a table with a single DbFile.writePages.
+     * Each page is marked clean before its bytes are taken, so that a page
+     * changed while it is written stays dirty.
+     */
+    private void writeRun(List<Page> run) throws IOException {
+        DbFile dbFile;
+        try {
+            dbFile = Database.getCatalog().getDbFile(run.get(0).id().tableid());
+        } catch (NoSuchElementException e) {
+            return; // the table was dropped
+        }
+        TransactionId[] dirtiers = new TransactionId[run.size()];
+        for (int i = 0; i < dirtiers.length; i++) {
+            dirtiers[i] = run.get(i).isDirty();
+            run.get(i).markDirty(false, null);
+        }
+        boolean written = false;
+        long start = System.nanoTime();
+        try {
+            dbFile.writePages(run);
+            written = true;
+        } finally {
+            this.writeLatency.record(System.nanoTime() - start);
+            if (!written) {
+                for (int i = 0; i < dirtiers.length; i++) {
+                    if (dirtiers[i] != null) run.get(i).markDirty(true, dirtiers[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards a page of the given partition from the buffer pool, chosen
+     * by the partition's replacement policy.  A dirty page can't be written
+     * while the pool's lock is held, so it is pinned and added to the given
+     * list instead, for the caller to evict with writeEvicted once it has
+     * released the lock.
+     *
+     * @throws DbException if every page in the partition is pinned.
+     */
+    private synchronized void evictPage(Partition partition, List<Page> dirty) throws DbException {
+        if (!evictOne(partition, dirty)) {
+            if (partition == this.defaultPartition && this.partitions.size() == 1) {
+                throw new DbException("all " + this.numPages + " pages of the pool are pinned");
+            }
+            throw new DbException("all " + partition.capacity + " pages of partition " + partition.name
+                    + " are pinned");
+        }
+    }
+
+    /**
+     * Does the work of evictPage.  The dirty page it pins goes back to the
+     * replacement policy with ReplacementPolicy.rejected, and is passed
+     * over while it is pinned.
+     *
+     * @return false if every page in the partition is pinned.
+     */
+    private synchronized boolean evictOne(Partition partition, List<Page> dirty) {
+        PageId victim = partition.policy.evict(this.pins.keySet());
+        if (victim == null) return false;
+        Page page = this.pageCache.get(victim);
+        if (page.isDirty() != null && isTable(victim.tableid())) {
+            partition.policy.rejected(victim);
+            count(this.pins, victim, 1);
+            dirty.add(page);
+            return true;
+        }
+        freeFrame(this.pageCache.remove(victim));
+        partition.used -= frames(victim.tableid());
+        this.evictions.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Writes the dirty pages evictPage pinned, without the pool's lock,
+     * and then evicts those that were not changed or pinned again
+     * meanwhile.  Evictions only write pages when the background writer
+     * has fallen behind, so it is woken up.  The list is emptied.
+     *
+     * @throws DbException if a page can't be written.
+     */
+    private void writeEvicted(List<Page> dirty) throws DbException {
+        if (dirty.isEmpty()) return;
+        Page page = dirty.get(0);
+        boolean written = false;
+        try {
+            writeRun(dirty);
+            written = true;
+        } catch (IOException e) {
+            throw new DbException("can't write page " + page.id().pageno() + ": " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                for (Page victim : dirty) {
+                    PageId pid = victim.id();
+                    count(this.pins, pid, -1);
+                    if (written && this.pageCache.get(pid) == victim && victim.isDirty() == null
+                            && !this.pins.containsKey(pid)) {
+                        discardPage(pid);
+                        this.evictions.incrementAndGet();
+                    }
+                }
+            }
+            dirty.clear();
+            wakeWriter();
+        }
+    }
+
+    /**
+     * @return whether the given table is still in the Catalog, so that its
+     *         dirty pages can be written.
+     */
+    private static boolean isTable(int tableid) {
+        try {
+            Database.getCatalog().getDbFile(tableid);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wakes the background writer up.
+     */
+    private void wakeWriter() {
+        synchronized (this.writerSignal) {
+            this.writerSignal.notify();
+        }
+    }
+
+    /**
+     * @return a snapshot of the statistics of this pool.
+     */
+    public BufferPoolStats stats() {
+        return new BufferPoolStats(this.numPages, getHits(), getMisses(), getEvictions(), getDirtyPages(),
+                getReadLatencyHistogram(), getWriteLatencyHistogram(), getResidency());
+    }
+
+    public int getNumPages() {
+        return this.numPages;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public int getDirtyPages() {
+        return dirtyPages(null).size();
+    }
+
+    public long[] getReadLatencyHistogram() {
+        return this.readLatency.counts();
+    }
+
+    public long[] getWriteLatencyHistogram() {
+        return this.writeLatency.counts();
+    }
+
+    public Map<Integer, Integer> getResidency() {
+        Map<Integer, Integer> residency = new TreeMap<Integer, Integer>();
+        for (PageId pid : this.pageCache.keySet()) {
+            count(residency, pid.tableid(), 1);
+        }
+        return residency;
     }
 
 }
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * The statistics of the BufferPool, as seen through JMX.  The database's
+ * pool is registered under {@link Database#BUFFER_POOL_MBEAN}, and
+ * replaced there when the pool is reset.  Counts start at zero when the
+ * pool is made.
+ *
+ * @see BufferPool#stats
+ */
+public interface BufferPoolMXBean {
+    /**
+     * @return the number of PAGE_SIZE pages the pool holds.
+     */
+    int getNumPages();
+
+    /**
+     * @return the number of fetches that found their page in the pool.
+     */
+    long getHits();
+
+    /**
+     * @return the number of fetches that did not find their page in the
+     *         pool, whether they read it or waited for another read.
+     */
+    long getMisses();
+
+    /**
+     * @return the number of pages evicted to make room.
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of dirty pages in the pool.
+     */
+    int getDirtyPages();
+
+    /**
+     * @return the number of reads, of one page or a run of pages, that
+     *         took the time of each bucket of a {@link LatencyHistogram}.
+     */
+    long[] getReadLatencyHistogram();
+
+    /**
+     * @return the number of writes, of one page or a run of pages, that
+     *         took the time of each bucket of a {@link LatencyHistogram}.
+     */
+    long[] getWriteLatencyHistogram();
+
+    /**
+     * @return the number of pages of each table in the pool, by table id.
+     */
+    Map<Integer, Integer> getResidency();
+}
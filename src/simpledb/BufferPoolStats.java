@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BufferPoolStats is a snapshot of the statistics of a BufferPool, taken
+ * by {@link BufferPool#stats}.  The counts are taken one after the other
+ * without stopping the pool, so they may be a few fetches apart.
+ */
+public class BufferPoolStats {
+    private final int numPages;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int dirtyPages;
+    private final long[] readLatency;
+    private final long[] writeLatency;
+    private final Map<Integer, Integer> residency;
+
+    /**
+     * Constructor.
+     *
+     * @see BufferPoolMXBean for the meaning of the arguments
+     */
+    public BufferPoolStats(int numPages, long hits, long misses, long evictions, int dirtyPages,
+                           long[] readLatency, long[] writeLatency, Map<Integer, Integer> residency) {
+        this.numPages = numPages;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.dirtyPages = dirtyPages;
+        this.readLatency = readLatency;
+        this.writeLatency = writeLatency;
+        this.residency = Collections.unmodifiableMap(residency);
+    }
+
+    public int numPages() {
+        return this.numPages;
+    }
+
+    public long hits() {
+        return this.hits;
+    }
+
+    public long misses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the share of the fetches that found their page in the pool,
+     *         or 0 if there were none.
+     */
+    public double hitRatio() {
+        long fetches = this.hits + this.misses;
+        return fetches == 0 ? 0 : (double) this.hits / fetches;
+    }
+
+    public long evictions() {
+        return this.evictions;
+    }
+
+    public int dirtyPages() {
+        return this.dirtyPages;
+    }
+
+    /**
+     * @return the counts of the read latency histogram.
+     * @see LatencyHistogram
+     */
+    public long[] readLatency() {
+        return this.readLatency.clone();
+    }
+
+    /**
+     * @return the counts of the write latency histogram.
+     * @see LatencyHistogram
+     */
+    public long[] writeLatency() {
+        return this.writeLatency.clone();
+    }
+
+    /**
+     * @return the number of pages of each table in the pool, by table id.
+     */
+    public Map<Integer, Integer> residency() {
+        return this.residency;
+    }
+
+    public String toString() {
+        return "BufferPoolStats(pages=" + this.numPages + ", hits=" + this.hits + ", misses=" + this.misses
+                + ", evictions=" + this.evictions + ", dirty=" + this.dirtyPages
+                + ", read p99=" + LatencyHistogram.percentileMicros(this.readLatency, 0.99) + "us"
+                + ", write p99=" + LatencyHistogram.percentileMicros(this.writeLatency, 0.99) + "us"
+                + ", residency=" + this.residency + ")";
+    }
+}
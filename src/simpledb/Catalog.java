@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -8,11 +11,21 @@ import java.util.*;
  * For now, this is a stub catalog that must be populated with tables by a
  * user program before it can be used -- eventually, this should be converted
  * to a catalog that reads a catalog table from disk.
+ * <p/>
+ * A table can be given a new version, stored in another file, while it is
+ * being read (see {@link HeapFile#vacuum}).  Lookups take no locks, and a
+ * version stays readable through its id after its name has moved on to a
+ * newer one.  Scans tell the catalog when they start and stop reading a
+ * table, so that a table that is dropped stays readable by the scans
+ * already running on it, and its files are only deleted after the last of
+ * them is done.
  */
 
 public class Catalog {
-    private final Map<Integer, Table> tableidMap = new HashMap<Integer, Table>();
-    private final Map<String, Table> tablenameMap = new HashMap<String, Table>();
+    private final ConcurrentMap<Integer, Table> tableidMap = new ConcurrentHashMap<Integer, Table>();
+    private final ConcurrentMap<String, Table> tablenameMap = new ConcurrentHashMap<String, Table>();
+    private final Map<Integer, Integer> readers = new HashMap<Integer, Integer>(); // scans reading each table
+    private final Set<Integer> dropped = new HashSet<Integer>(); // dropped tables that are still read
 
     /**
      * Constructor.
@@ -34,8 +47,27 @@ public class Catalog {
      *             conflict exists, use the last table to be added as the table for a given name.
      */
     public void addTable(DbFile file, TupleDesc t, String name) {
-        Table table = new Table(file, t, name);
-        this.tableidMap.put(table.getFile().id(), table);
+        addTable(file, t, name, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Add a new table to the catalog, whose pages hold pageSize bytes of
+     * tuples instead of BufferPool.PAGE_SIZE.  Large pages suit tables that
+     * are mostly scanned; the BufferPool charges each page of the table
+     * for the number of default size pages it takes up.
+     *
+     * @param file     the contents of the table to add
+     * @param t        the format of tuples that are being added
+     * @param name     the name of the table -- may be an empty string.  May not be null.
+     * @param pageSize the number of bytes of tuples on a page, not counting
+     *                 the page header (e.g. 4096, 16384 or 65536)
+     */
+    public synchronized void addTable(DbFile file, TupleDesc t, String name, int pageSize) {
+        Table table = new Table(file, t, name, pageSize);
+        Table old = this.tableidMap.put(table.getFile().id(), table);
+        if (old != null && old.getFile() != file) {
+            closeFile(old.getFile());
+        }
         this.tablenameMap.put(name, table);
     }
 
@@ -52,14 +84,113 @@ public class Catalog {
         addTable(file, t, "");
     }
 
+    /**
+     * Adds a new version of the specified table, stored in the given file,
+     * with the table's schema, name and page size.  The version can be read
+     * and written through file.id(), but the name of the table keeps
+     * referring to the current version until swapVersion is called.
+     *
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public synchronized void addVersion(int tableid, DbFile file) throws NoSuchElementException {
+        Table table = this.tableidMap.get(tableid);
+        if (table == null) throw new NoSuchElementException();
+        this.tableidMap.put(file.id(), new Table(file, table.getT(), table.getName(), table.getPageSize()));
+    }
+
+    /**
+     * Makes the name of a table refer to the given version of it.  The
+     * version that the name referred to stays in the catalog under its id,
+     * so that scans that started on it can finish; dropTable removes it.
+     *
+     * @param versionid the id of a version added with addVersion
+     * @return the id of the version that the name referred to
+     * @throws NoSuchElementException if the version doesn't exist
+     */
+    public synchronized int swapVersion(int versionid) throws NoSuchElementException {
+        Table version = this.tableidMap.get(versionid);
+        if (version == null) throw new NoSuchElementException();
+        Table old = this.tablenameMap.put(version.getName(), version);
+        return old == null ? versionid : old.getFile().id();
+    }
+
+    /**
+     * Removes a table, or an old version of one, from the catalog, and
+     * deletes its files.  Its name is released at once, but the scans
+     * reading it go on reading it by id: it is only removed once the last
+     * of them has called endRead.
+     *
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public synchronized void dropTable(int tableid) throws NoSuchElementException {
+        Table table = this.tableidMap.get(tableid);
+        if (table == null || this.dropped.contains(tableid)) throw new NoSuchElementException();
+        this.tablenameMap.remove(table.getName(), table);
+        if (this.readers.containsKey(tableid)) {
+            this.dropped.add(tableid);
+        } else {
+            remove(tableid);
+        }
+    }
+
+    /**
+     * Notes that a scan started reading the specified table, which will not
+     * be removed before the scan calls endRead.
+     *
+     * @throws NoSuchElementException if the table doesn't exist or has been
+     *                                dropped
+     */
+    public synchronized void beginRead(int tableid) throws NoSuchElementException {
+        if (!this.tableidMap.containsKey(tableid) || this.dropped.contains(tableid)) {
+            throw new NoSuchElementException();
+        }
+        Integer n = this.readers.get(tableid);
+        this.readers.put(tableid, n == null ? 1 : n + 1);
+    }
+
+    /**
+     * Notes that a scan that called beginRead is done with the specified
+     * table, and removes the table if it was dropped and this was its last
+     * reader.
+     */
+    public synchronized void endRead(int tableid) {
+        Integer n = this.readers.get(tableid);
+        if (n == null) return;
+        if (n > 1) {
+            this.readers.put(tableid, n - 1);
+            return;
+        }
+        this.readers.remove(tableid);
+        if (this.dropped.remove(tableid)) {
+            remove(tableid);
+        }
+    }
+
+    /**
+     * Removes a dropped table from the catalog and deletes its files.
+     */
+    private void remove(int tableid) {
+        DbFile file = this.tableidMap.remove(tableid).getFile();
+        if (file instanceof HeapFile) {
+            try {
+                ((HeapFile) file).delete();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            closeFile(file);
+        }
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) {
-        if (!this.tablenameMap.containsKey(name)) throw new NoSuchElementException();
-        return this.tablenameMap.get(name).getFile().id();
+        Table table = name == null ? null : this.tablenameMap.get(name);
+        if (table == null) throw new NoSuchElementException();
+        return table.getFile().id();
     }
 
     /**
@@ -69,8 +200,17 @@ public class Catalog {
      *                function passed to addTable
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        if (!this.tableidMap.containsKey(tableid)) throw new NoSuchElementException();
-        return this.tableidMap.get(tableid).getT();
+        return table(tableid).getT();
+    }
+
+    /**
+     * Returns the number of bytes of tuples on a page of the specified table.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.id()
+     *                function passed to addTable
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return table(tableid).getPageSize();
     }
 
     /**
@@ -81,15 +221,39 @@ public class Catalog {
      *                function passed to addTable
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
-        if (!this.tableidMap.containsKey(tableid)) throw new NoSuchElementException();
-        return this.tableidMap.get(tableid).getFile();
+        return table(tableid).getFile();
+    }
+
+    private Table table(int tableid) throws NoSuchElementException {
+        Table table = this.tableidMap.get(tableid);
+        if (table == null) throw new NoSuchElementException();
+        return table;
     }
 
     /**
      * Delete all tables from the catalog
      */
-    public void clear() {
+    public synchronized void clear() {
+        for (Table table : this.tableidMap.values()) {
+            closeFile(table.getFile());
+        }
         this.tableidMap.clear();
         this.tablenameMap.clear();
+        this.readers.clear();
+        this.dropped.clear();
+    }
+
+    /**
+     * Releases the resources (e.g. open file handles) held by a DbFile that
+     * is no longer reachable through the catalog.
+     */
+    private static void closeFile(DbFile file) {
+        if (file instanceof Closeable) {
+            try {
+                ((Closeable) file).close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
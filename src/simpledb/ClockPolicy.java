@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy approximates LRU with the CLOCK algorithm: the pages sit on
+ * a circle of slots, each with a reference bit that is set when the page is
+ * used.  The hand sweeps the circle clearing bits, and evicts the first
+ * page it finds whose bit is already clear, so a page survives for as long
+ * as it is used at least once per sweep.  Using a page costs no more than
+ * setting its bit.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private PageId[] slots = new PageId[16];
+    private boolean[] referenced = new boolean[16];
+    private final Map<PageId, Integer> slotOf = new HashMap<PageId, Integer>();
+    private final Deque<Integer> free = new ArrayDeque<Integer>(); // empty slots below used
+    private int used; // slots handed out so far
+    private int hand;
+
+    public void added(PageId pid) {
+        int slot;
+        if (!this.free.isEmpty()) {
+            slot = this.free.pop();
+        } else {
+            if (this.used == this.slots.length) {
+                this.slots = Arrays.copyOf(this.slots, this.used * 2);
+                this.referenced = Arrays.copyOf(this.referenced, this.used * 2);
+            }
+            slot = this.used++;
+        }
+        this.slots[slot] = pid;
+        this.referenced[slot] = true;
+        this.slotOf.put(pid, slot);
+    }
+
+    public void accessed(PageId pid) {
+        Integer slot = this.slotOf.get(pid);
+        if (slot != null) this.referenced[slot] = true;
+    }
+
+    public void rejected(PageId pid) {
+        added(pid);
+        this.referenced[this.slotOf.get(pid)] = false;
+    }
+
+    public void removed(PageId pid) {
+        Integer slot = this.slotOf.remove(pid);
+        if (slot != null) {
+            this.slots[slot] = null;
+            this.free.push(slot);
+        }
+    }
+
+    public PageId evict(Set<PageId> pinned) {
+        // two turns: the first may only clear bits
+        for (int i = 0; i < 2 * this.used; i++) {
+            int slot = this.hand;
+            this.hand = (this.hand + 1) % this.used;
+            PageId pid = this.slots[slot];
+            if (pid == null || pinned.contains(pid)) continue;
+            if (this.referenced[slot]) {
+                this.referenced[slot] = false;
+            } else {
+                removed(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * A StringField that was decoded from a dictionary encoded column.  There
+ * is a single CodedStringField for each value of a dictionary, shared by
+ * all the tuples that hold it, and it remembers its code so that equality
+ * tests and grouping can work on the code instead of the string.
+ *
+ * @see StringDictionary
+ */
+public class CodedStringField extends StringField {
+    private final StringDictionary dictionary;
+    private final int code;
+
+    CodedStringField(StringDictionary dictionary, int code, String s) {
+        super(s, Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /**
+     * @return the dictionary this value belongs to.
+     */
+    public StringDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * @return the code of this value in its dictionary.
+     */
+    public int getCode() {
+        return this.code;
+    }
+
+    public boolean equals(Object field) {
+        if (field instanceof CodedStringField
+                && ((CodedStringField) field).dictionary == this.dictionary) {
+            return ((CodedStringField) field).code == this.code;
+        }
+        return super.equals(field);
+    }
+
+    public int hashCode() {
+        return super.hashCode();
+    }
+}
@@ -0,0 +1,327 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores a table column by column, for
+ * analytical queries that read a few columns of wide tables.  A scan only
+ * fetches the pages of the columns it asks for (see
+ * {@link #iterator(TransactionId, int[])}), where a HeapFile scan reads every
+ * byte of every row.
+ * <p/>
+ * The file is a sequence of BufferPool.PAGE_SIZE byte pages.  Page 0 is a
+ * header holding the number of columns and the number of rows, both ints;
+ * it is followed by one segment per column, in column order, each made of
+ * as many ColumnPages as the rows need.  The layout is fixed when the file
+ * is written by {@link HeapFileEncoder#convertColumnar}, so a ColumnFile is
+ * read-only: addTuple and deleteTuple fail.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile, Closeable {
+    static final int HEADER_SIZE = 8;
+
+    private final File f;
+    private FileChannel channel; // opened on first use
+    private int numRows = -1; // read from the header on first use
+    private int[] firstPage; // first page of each column segment, then the end of the file
+
+    /**
+     * Constructor.
+     *
+     * @param f The file that stores the on-disk backing store for this DbFile.
+     */
+    public ColumnFile(File f) {
+        this.f = f;
+    }
+
+    /**
+     * Return a Java File corresponding to the data from this ColumnFile on disk.
+     */
+    public File getFile() {
+        return this.f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this ColumnFile, the hash of its
+     *         absolute file name.
+     */
+    public int id() {
+        return this.f.getAbsoluteFile().hashCode();
+    }
+
+    private TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(id());
+    }
+
+    /**
+     * Reads the header of the file and works out where each column
+     * segment starts, if that has not been done yet.
+     */
+    private synchronized void loadLayout() throws IOException {
+        if (this.firstPage != null) return;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.hasRemaining()) throw new EOFException("no ColumnFile header");
+        TupleDesc td = getTupleDesc();
+        int numColumns = header.getInt(0);
+        if (numColumns != td.numFields())
+            throw new IOException("file has " + numColumns + " columns, table has " + td.numFields());
+        int rows = header.getInt(4);
+        int[] first = new int[numColumns + 1];
+        first[0] = 1;
+        for (int c = 0; c < numColumns; c++) {
+            int perPage = ColumnPage.valuesPerPage(td.getType(c));
+            first[c + 1] = first[c] + (rows + perPage - 1) / perPage;
+        }
+        this.numRows = rows;
+        this.firstPage = first;
+    }
+
+    /**
+     * @return the number of rows in the table.
+     */
+    public int numRows() throws IOException {
+        loadLayout();
+        return this.numRows;
+    }
+
+    /**
+     * Returns a page of one of the column segments of the file.
+     *
+     * @throws NoSuchElementException if the page is the header or lies past
+     *                                the last segment
+     */
+    public Page readPage(PageId pid) throws NoSuchElementException {
+        try {
+            loadLayout();
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            readFully(buf, (long) pid.pageno() * BufferPool.PAGE_SIZE);
+            return newPage((HeapPageId) pid, buf.array());
+        } catch (IOException e) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Reads consecutive pages, which may span several column segments,
+     * with a single scatter read into one buffer per page.
+     */
+    public List<Page> readPages(PageId first, int count) throws NoSuchElementException {
+        ByteBuffer[] bufs = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            bufs[i] = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        }
+        try {
+            loadLayout();
+            FileChannel ch = getChannel();
+            synchronized (ch) {
+                ch.position((long) first.pageno() * BufferPool.PAGE_SIZE);
+                while (bufs[count - 1].hasRemaining()) {
+                    if (ch.read(bufs) < 0) break;
+                }
+            }
+            List<Page> pages = new ArrayList<Page>(count);
+            for (int i = 0; i < count; i++) {
+                pages.add(newPage(new HeapPageId(first.tableid(), first.pageno() + i), bufs[i].array()));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * @return the ColumnPage made of the given bytes read from the file.
+     * @throws NoSuchElementException if the page is the header or lies past
+     *                                the last segment
+     */
+    private ColumnPage newPage(HeapPageId pid, byte[] data) throws NoSuchElementException {
+        int pageno = pid.pageno();
+        int c = 0;
+        while (c + 1 < this.firstPage.length && this.firstPage[c + 1] <= pageno) c++;
+        if (pageno < 1 || c + 1 == this.firstPage.length) throw new NoSuchElementException();
+
+        Type type = getTupleDesc().getType(c);
+        int perPage = ColumnPage.valuesPerPage(type);
+        int numValues = Math.min(perPage, this.numRows - (pageno - this.firstPage[c]) * perPage);
+        return new ColumnPage(pid, type, numValues, data);
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) break;
+        }
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            String mode = this.f.canWrite() ? "rw" : "r";
+            this.channel = new RandomAccessFile(this.f, mode).getChannel();
+        }
+        return this.channel;
+    }
+
+    /**
+     * Writes the given page back to its place in the file.
+     */
+    public void writePage(Page page) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long position = (long) page.id().pageno() * BufferPool.PAGE_SIZE;
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, position + buf.position());
+        }
+    }
+
+    /**
+     * Writes consecutive pages, which may span several column segments,
+     * with a single gather write.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[pages.size()];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(pages.get(i).getPageData());
+        }
+        FileChannel ch = getChannel();
+        synchronized (ch) {
+            ch.position((long) pages.get(0).id().pageno() * BufferPool.PAGE_SIZE);
+            while (bufs[bufs.length - 1].hasRemaining()) {
+                ch.write(bufs);
+            }
+        }
+    }
+
+    /**
+     * Releases the file handle held by this ColumnFile; a later read will
+     * open the file again.  The layout of the file is kept, since scans
+     * that are running go on using it.
+     */
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file, including the header.
+     */
+    public int numPages() {
+        return (int) (this.f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * ColumnFiles are read-only.
+     *
+     * @throws DbException always
+     */
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("ColumnFile is read-only");
+    }
+
+    /**
+     * ColumnFiles are read-only.
+     *
+     * @throws DbException always
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        throw new DbException("ColumnFile is read-only");
+    }
+
+    /**
+     * An iterator over all the columns of all the rows of the table.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] fields = new int[getTupleDesc().numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = i;
+        }
+        return iterator(tid, fields);
+    }
+
+    /**
+     * An iterator over some of the columns of all the rows of the table.
+     * Only the pages of those columns are read, through the BufferPool.
+     *
+     * @param fields the columns to return, in order; the tuples returned
+     *               have the schema TupleDesc.project(td, fields) where td
+     *               is the schema of the table.
+     */
+    public DbFileIterator iterator(final TransactionId tid, final int[] fields) {
+        final TupleDesc td = TupleDesc.project(getTupleDesc(), fields);
+        return new AbstractDbFileIterator() {
+            private int row;
+            private ColumnPage[] pages; // current page of each column, pinned in pool; null until open
+            private BufferPool pool;
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (this.pages == null) {
+                    return null;
+                }
+                if (this.row >= numRows) {
+                    unpinAll();
+                    return null;
+                }
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < fields.length; j++) {
+                    int perPage = ColumnPage.valuesPerPage(td.getType(j));
+                    int pageno = firstPage[fields[j]] + this.row / perPage;
+                    if (this.pages[j] == null || this.pages[j].id().pageno() != pageno) {
+                        unpin(j);
+                        this.pool = Database.getBufferPool();
+                        this.pages[j] = (ColumnPage) this.pool.pinPage(
+                                tid, new HeapPageId(id(), pageno), Permissions.READ_ONLY);
+                    }
+                    t.setField(j, this.pages[j].getField(this.row % perPage));
+                }
+                this.row++;
+                return t;
+            }
+
+            private void unpin(int j) {
+                if (this.pages[j] != null) {
+                    this.pool.unpinPage(tid, this.pages[j].id());
+                    this.pages[j] = null;
+                }
+            }
+
+            private void unpinAll() {
+                for (int j = 0; this.pages != null && j < this.pages.length; j++) {
+                    unpin(j);
+                }
+            }
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                try {
+                    loadLayout();
+                } catch (IOException e) {
+                    throw new DbException("can't read ColumnFile header: " + e.getMessage());
+                }
+                unpinAll();
+                this.pages = new ColumnPage[fields.length];
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                this.row = 0;
+                open();
+            }
+
+            @Override
+            public void close() {
+                unpinAll();
+                this.pages = null;
+                super.close();
+            }
+        };
+    }
+}
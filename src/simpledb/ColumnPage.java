@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ColumnPage holds consecutive values of one column of a ColumnFile.  A page
+ * is BufferPool.PAGE_SIZE bytes of values of the column's type, each
+ * encoded as in a HeapPage record, followed by zero padding; the number of
+ * values on the page follows from the position of the page in its column
+ * and is not stored.  Values are decoded when they are asked for.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+    private volatile boolean dirty = false;
+    private TransactionId dirtier = null;
+
+    private final HeapPageId pid;
+    private final Type type;
+    private final int numValues;
+    private final ByteBuffer data;
+
+    /**
+     * Create a ColumnPage from the bytes of a column page read from disk.
+     *
+     * @param id        the id of this page
+     * @param type      the type of the column
+     * @param numValues the number of values on the page
+     * @param data      the page as read from disk
+     */
+    public ColumnPage(HeapPageId id, Type type, int numValues, byte[] data) {
+        this.pid = id;
+        this.type = type;
+        this.numValues = numValues;
+        this.data = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * @return the number of values that fit on a page of a column of the
+     *         given type.
+     */
+    public static int valuesPerPage(Type type) {
+        return BufferPool.PAGE_SIZE / type.getLen();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public ColumnPage getBeforeImage() {
+        // not necessary for this project
+        return null;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId id() {
+        return this.pid;
+    }
+
+    /**
+     * @return the number of values on this page.
+     */
+    public int numValues() {
+        return this.numValues;
+    }
+
+    /**
+     * @return the ith value on this page.
+     * @throws NoSuchElementException if there is no such value or it cannot
+     *                                be decoded.
+     */
+    public Field getField(int i) throws NoSuchElementException {
+        if (i < 0 || i >= this.numValues) throw new NoSuchElementException();
+        try {
+            return this.type.parse(this.data, i * this.type.getLen());
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * @return the bytes of this page, as read from disk.
+     */
+    public byte[] getPageData() {
+        return this.data.array().clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) this.dirtier = tid;
+        this.dirty = dirty; // publishes dirtier
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+}
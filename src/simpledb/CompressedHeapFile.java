@@ -0,0 +1,300 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed on disk with
+ * {@link PageCompressor}.  HeapPages are mostly padding and empty slots, so
+ * they typically shrink to a fraction of their size, and a scan reads that
+ * much less from disk.  Pages in the BufferPool are ordinary HeapPages.
+ * <p/>
+ * Compressed pages vary in size, so they are located through an offset
+ * index kept in a sidecar file named after the data file with ".idx"
+ * appended: one entry per page holding the 8 byte offset and 4 byte length
+ * of the compressed page in the data file, a length of 0 meaning that the
+ * page is empty.  writePage rewrites a page in place when its new image is
+ * no larger than the old one, and appends it otherwise; the space of the
+ * old image is then lost until the file is rebuilt.
+ *
+ * @see #convert
+ */
+public class CompressedHeapFile extends HeapFile {
+    static final int INDEX_ENTRY_SIZE = 12;
+
+    private final File indexFile;
+    private int numPages;
+    private FileChannel indexChannel; // opened on first use
+    private long[] offsets; // compressed page offset by page number, loaded on first use
+    private int[] lengths; // compressed page length by page number
+    private int indexed; // entries in the index file
+
+    /**
+     * Constructor.
+     *
+     * @param f The file that stores the compressed pages of this DbFile.
+     */
+    public CompressedHeapFile(File f) {
+        super(f);
+        this.indexFile = indexFile(f);
+        this.numPages = (int) (this.indexFile.length() / INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * @return the offset index of the given data file.
+     */
+    public static File indexFile(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    /**
+     * Compresses a file of HeapPages, such as those written by
+     * HeapFileEncoder, into a data file and its offset index.
+     *
+     * @param inFile       the file of HeapPages
+     * @param outFile      the data file to write; the index is written next to it
+     * @param bytesPerPage the size of a HeapPage of the table, including its header
+     */
+    public static void convert(File inFile, File outFile, int bytesPerPage) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(inFile));
+        DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile(outFile))));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile));
+        try {
+            byte[] page = new byte[bytesPerPage];
+            long offset = 0;
+            int n;
+            while ((n = readPageBytes(in, page)) > 0) {
+                // a partial last page reads as if it were zero padded
+                Arrays.fill(page, n, bytesPerPage, (byte) 0);
+                byte[] blob = PageCompressor.compress(page);
+                out.write(blob);
+                index.writeLong(offset);
+                index.writeInt(blob.length);
+                offset += blob.length;
+            }
+        } finally {
+            in.close();
+            out.close();
+            index.close();
+        }
+    }
+
+    private static int readPageBytes(InputStream in, byte[] page) throws IOException {
+        int n = 0;
+        while (n < page.length) {
+            int r = in.read(page, n, page.length - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+
+    /**
+     * Returns a Page from the file, decompressing it.
+     */
+    public Page readPage(PageId pid) throws NoSuchElementException {
+        int pageSize = bytesPerPage();
+        try {
+            long offset;
+            int length;
+            synchronized (this) {
+                loadIndex();
+                int pageno = pid.pageno();
+                offset = pageno < this.indexed ? this.offsets[pageno] : 0;
+                length = pageno < this.indexed ? this.lengths[pageno] : 0;
+            }
+            if (length == 0) {
+                // not on disk yet
+                return new HeapPage((HeapPageId) pid, new byte[pageSize]);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            readFully(buf, offset);
+            if (buf.hasRemaining())
+                throw new EOFException("compressed page " + pid.pageno() + " is truncated");
+            byte[] data = PageCompressor.decompress(buf.array(), 0, length, pageSize);
+            return new HeapPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Returns consecutive pages from the file.  Pages written by convert
+     * or appended in order lie next to each other, so the compressed pages
+     * are read with a single read when they take up most of the span of
+     * the file that holds them; otherwise they are read one at a time.
+     */
+    public List<Page> readPages(PageId first, int count) throws NoSuchElementException {
+        int pageSize = bytesPerPage();
+        long[] offset = new long[count];
+        int[] length = new int[count];
+        long start = Long.MAX_VALUE, end = 0, total = 0;
+        try {
+            synchronized (this) {
+                loadIndex();
+                for (int i = 0; i < count; i++) {
+                    int pageno = first.pageno() + i;
+                    if (pageno >= this.indexed || this.lengths[pageno] == 0) continue;
+                    offset[i] = this.offsets[pageno];
+                    length[i] = this.lengths[pageno];
+                    start = Math.min(start, offset[i]);
+                    end = Math.max(end, offset[i] + length[i]);
+                    total += length[i];
+                }
+            }
+            List<Page> pages = new ArrayList<Page>(count);
+            if (end - start > 2 * total) {
+                for (int i = 0; i < count; i++) {
+                    pages.add(readPage(new HeapPageId(first.tableid(), first.pageno() + i)));
+                }
+                return pages;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.max(0, end - start));
+            readFully(buf, start);
+            if (buf.hasRemaining()) throw new EOFException("compressed pages are truncated");
+            for (int i = 0; i < count; i++) {
+                byte[] data = length[i] == 0 ? new byte[pageSize]
+                        : PageCompressor.decompress(buf.array(), (int) (offset[i] - start), length[i], pageSize);
+                pages.add(new HeapPage(new HeapPageId(first.tableid(), first.pageno() + i), data));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Writes consecutive pages one at a time: each compresses to a size of
+     * its own and may move, so they can't be written as one run.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) {
+            writePage(page);
+        }
+    }
+
+    /**
+     * Compresses the given page and writes it to the file, then points its
+     * index entry at it.
+     */
+    public synchronized void writePage(Page page) throws IOException {
+        byte[] blob = PageCompressor.compress(page.getPageData());
+        int pageno = page.id().pageno();
+        loadIndex();
+        FileChannel ch = getChannel();
+        long offset = pageno < this.indexed && this.lengths[pageno] >= blob.length
+                ? this.offsets[pageno] : ch.size();
+        writeFully(ch, ByteBuffer.wrap(blob), offset);
+
+        // the page is in place; now publish it, filling any gap with empty pages
+        int first = Math.min(pageno, this.indexed);
+        ByteBuffer entries = ByteBuffer.allocate((pageno + 1 - first) * INDEX_ENTRY_SIZE);
+        entries.position((pageno - first) * INDEX_ENTRY_SIZE);
+        entries.putLong(offset);
+        entries.putInt(blob.length);
+        entries.flip();
+        writeFully(indexChannel(), entries, (long) first * INDEX_ENTRY_SIZE);
+
+        if (pageno >= this.offsets.length) {
+            int capacity = Math.max(pageno + 1, this.offsets.length * 2);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+        }
+        this.offsets[pageno] = offset;
+        this.lengths[pageno] = blob.length;
+        this.indexed = Math.max(this.indexed, pageno + 1);
+        this.numPages = Math.max(this.numPages, this.indexed);
+    }
+
+    /**
+     * Writes pages filled by appendTuples one at a time, since each is
+     * compressed to its own size.
+     */
+    protected void appendPages(List<Page> pages) throws IOException {
+        for (Page page : pages) {
+            writePage(page);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf, position + buf.position());
+        }
+    }
+
+    /**
+     * Reads the offset index into memory if that has not been done yet.
+     */
+    private synchronized void loadIndex() throws IOException {
+        if (this.offsets != null) return;
+        FileChannel ch = indexChannel();
+        int entries = (int) (ch.size() / INDEX_ENTRY_SIZE);
+        ByteBuffer buf = ByteBuffer.allocate(entries * INDEX_ENTRY_SIZE);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, buf.position()) < 0) break;
+        }
+        buf.flip();
+        this.offsets = new long[Math.max(entries, 8)];
+        this.lengths = new int[this.offsets.length];
+        for (int i = 0; i < entries; i++) {
+            this.offsets[i] = buf.getLong();
+            this.lengths[i] = buf.getInt();
+        }
+        this.indexed = entries;
+    }
+
+    private synchronized FileChannel indexChannel() throws IOException {
+        if (this.indexChannel == null || !this.indexChannel.isOpen()) {
+            String mode = getFile().canWrite() ? "rw" : "r";
+            this.indexChannel = new RandomAccessFile(this.indexFile, mode).getChannel();
+        }
+        return this.indexChannel;
+    }
+
+    /**
+     * Releases the file handles held by this file.  The index is read again
+     * on the next access.
+     */
+    public synchronized void close() throws IOException {
+        this.offsets = null;
+        this.lengths = null;
+        if (this.indexChannel != null) {
+            this.indexChannel.close();
+            this.indexChannel = null;
+        }
+        super.close();
+    }
+
+    /**
+     * Deletes this file, its sidecars and its offset index.
+     */
+    public synchronized void delete() throws IOException {
+        super.delete();
+        this.indexFile.delete();
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public synchronized int numPages() {
+        return this.numPages;
+    }
+
+    /**
+     * Records that a page has been added at the end of the file.
+     */
+    protected synchronized void incrementNumPages() {
+        this.numPages++;
+    }
+
+    /**
+     * @return an empty CompressedHeapFile stored in the given file.
+     */
+    protected HeapFile newVersion(File f) {
+        return new CompressedHeapFile(f);
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
 
 /** Database is a class that initializes several static
     variables used by the database system (the catalog, the buffer pool,
@@ -11,8 +13,13 @@ import java.io.*;
 */
 
 public class Database {
+    /** The name the buffer pool is registered under with the platform
+        MBean server, for JMX clients such as jconsole
+    */
+    public static final String BUFFER_POOL_MBEAN = "simpledb:type=BufferPool";
+
     private static Catalog _catalog = new Catalog();
-    private static BufferPool _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    private static BufferPool _bufferpool = register(new BufferPool(BufferPool.DEFAULT_PAGES));
 
     private Database() {
     }
@@ -31,10 +38,56 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
-        _bufferpool = new BufferPool(pages);
+        _bufferpool = register(new BufferPool(pages));
         return _bufferpool;
     }
 
+    /** Create a new instance of the buffer pool that reads readAhead
+        pages ahead of sequential scans, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, int readAhead) {
+        _bufferpool = register(new BufferPool(pages, readAhead));
+        return _bufferpool;
+    }
+
+    /** Create a new instance of the buffer pool that evicts pages with
+        the given replacement policy, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, int readAhead, ReplacementPolicy policy) {
+        _bufferpool = register(new BufferPool(pages, readAhead, policy));
+        return _bufferpool;
+    }
+
+    /** Create a new instance of the buffer pool whose background writer
+        writes dirty pages back once they take up more than dirtyRatio of
+        it, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, int readAhead, ReplacementPolicy policy,
+                                             double dirtyRatio) {
+        _bufferpool = register(new BufferPool(pages, readAhead, policy, dirtyRatio));
+        return _bufferpool;
+    }
+
+    /** Registers the given buffer pool as the BUFFER_POOL_MBEAN, in place of
+        the pool it replaces, and returns it.  Statistics are not worth
+        failing for, so a pool that can't be registered is left out
+    */
+    private static BufferPool register(BufferPool pool) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(BUFFER_POOL_MBEAN);
+            synchronized (Database.class) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(pool, name);
+            }
+        } catch (JMException e) {
+            // not visible through JMX
+        }
+        return pool;
+    }
+
     //Dummy function so recovery code compiles;  not needed in this project
     public static LogFile resetLogFile() throws IOException { return null; }
 
@@ -20,6 +20,16 @@ public interface DbFile {
      */
     public Page readPage(PageId id) throws NoSuchElementException;
 
+    /**
+     * Read count consecutive pages from disk, starting with the specified
+     * page, with as few I/O requests as the file allows.
+     *
+     * @return the pages, in order
+     * @throws NoSuchElementException if one of the pages does not exist in
+     *   this file
+     */
+    public List<Page> readPages(PageId first, int count) throws NoSuchElementException;
+
     /**
      * Push the specified page to disk.
      * This page must have been previously read from this file via a call to
@@ -30,6 +40,14 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push consecutive pages to disk, in order, with as few I/O requests as
+     * the file allows.  The pages must have been read from this file.
+     *
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException;
+
     /**
      * Adds the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -59,6 +77,12 @@ public interface DbFile {
 
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * @return the number of pages in this file; pages past the end are
+     *   never read ahead by the buffer pool.
+     */
+    public int numPages();
+
     /**
      * @return a table id for this table.
      */
@@ -0,0 +1,305 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * DictionaryHeapFile is a HeapFile whose STRING columns are dictionary
+ * encoded: each distinct value of a column is given a code (see
+ * {@link StringDictionary}) and the pages hold the 4 byte codes in place of
+ * the STRING_LEN + 4 byte strings.  Columns with few distinct values thus
+ * take a fraction of the space on disk and in the BufferPool, and the
+ * tuples returned share one {@link CodedStringField} per value instead of
+ * decoding a new String for each row.
+ * <p/>
+ * Pages are HeapPages laid out for the stored schema, where every STRING
+ * field of the table is an INT.  The dictionaries are kept in a sidecar
+ * file named after the data file with ".dict" appended, a sequence of
+ * (int column, UTF string) entries in the order the codes were given out.
+ * New values are appended to it as soon as they get a code, before any
+ * page holding the code can be written.  Files in this format are produced
+ * by {@link HeapFileEncoder#convertDictionary}.
+ *
+ * @see StringDictionary
+ */
+public class DictionaryHeapFile extends HeapFile {
+    private volatile StringDictionary[] dictionaries; // by column, null for INT columns; loaded on first use
+    private TupleDesc storedTd;
+
+    /**
+     * Constructor.
+     *
+     * @param f The file that stores the on-disk backing store for this DbFile.
+     */
+    public DictionaryHeapFile(File f) {
+        super(f);
+    }
+
+    /**
+     * @return the dictionary sidecar of the given data file.
+     */
+    public static File dictionaryFile(File f) {
+        return new File(f.getPath() + ".dict");
+    }
+
+    /**
+     * @return the types the fields of the given types are stored as: INT
+     *         for every field.
+     */
+    static Type[] storedTypes(Type[] types) {
+        Type[] stored = new Type[types.length];
+        Arrays.fill(stored, Type.INT_TYPE);
+        return stored;
+    }
+
+    /**
+     * @return an empty dictionary for each STRING field of the given types,
+     *         and null for the other fields.
+     */
+    static StringDictionary[] newDictionaries(Type[] types) {
+        StringDictionary[] dictionaries = new StringDictionary[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Type.STRING_TYPE) {
+                dictionaries[i] = new StringDictionary();
+            }
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Writes the dictionaries of a newly encoded file to its sidecar.
+     */
+    static void writeDictionaries(File f, StringDictionary[] dictionaries) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(dictionaryFile(f))));
+        try {
+            for (int c = 0; c < dictionaries.length; c++) {
+                if (dictionaries[c] == null) continue;
+                for (int code = 0; code < dictionaries[c].size(); code++) {
+                    out.writeInt(c);
+                    out.writeUTF(dictionaries[c].field(code).getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the dictionaries of the columns of this table, reading the
+     *         sidecar if that has not been done yet.
+     */
+    protected synchronized StringDictionary[] dictionaries() throws IOException {
+        if (this.dictionaries != null) {
+            return this.dictionaries;
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(id());
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getType(i);
+            names[i] = td.getFieldName(i);
+        }
+        StringDictionary[] dictionaries = newDictionaries(types);
+        File sidecar = dictionaryFile(getFile());
+        if (sidecar.exists()) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(sidecar)));
+            try {
+                while (true) {
+                    int c;
+                    try {
+                        c = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (c < 0 || c >= types.length || dictionaries[c] == null)
+                        throw new IOException("bad dictionary entry for column " + c);
+                    dictionaries[c].add(in.readUTF());
+                }
+            } finally {
+                in.close();
+            }
+        }
+        this.storedTd = new TupleDesc(storedTypes(types), names);
+        this.dictionaries = dictionaries;
+        return dictionaries;
+    }
+
+    /**
+     * @return the schema of the records on the pages of this file.
+     */
+    private TupleDesc storedTupleDesc() throws IOException {
+        dictionaries();
+        return this.storedTd;
+    }
+
+    /**
+     * @return the HeapPage, laid out for the stored schema, made of the
+     *         given bytes read from the file.
+     */
+    protected Page newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, ByteBuffer.wrap(data), storedTupleDesc());
+    }
+
+    /**
+     * @return the number of bytes on a page, including the header, for
+     *         records of the stored schema.
+     */
+    public int bytesPerPage() {
+        int pageSize = Database.getCatalog().getPageSize(id());
+        int recordSize = Database.getCatalog().getTupleDesc(id()).numFields() * Type.INT_TYPE.getLen();
+        return pageSize + (((pageSize / recordSize) / HeapPage.INTEGER_SIZE) + 1) * 4;
+    }
+
+    /**
+     * Adds the specified tuple to the table, giving codes to the values of
+     * its STRING fields that are not in their dictionary yet.
+     *
+     * @return An ArrayList contain the pages that were modified
+     */
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple stored = encode(t);
+        ArrayList<Page> result = super.addTuple(tid, stored);
+        t.setRecordID(stored.getRecordID());
+        return result;
+    }
+
+    /**
+     * Encodes a tuple and adds it to a page being filled by appendTuples.
+     *
+     * @return the stored form of the tuple, or null if the page has no room
+     *         for it.
+     */
+    protected Tuple addToNewPage(Page page, Tuple t) throws DbException {
+        Tuple stored;
+        try {
+            stored = encode(t);
+        } catch (IOException e) {
+            throw new DbException("can't update the dictionary: " + e.getMessage());
+        }
+        if (super.addToNewPage(page, stored) == null) {
+            return null;
+        }
+        t.setRecordID(stored.getRecordID());
+        return stored;
+    }
+
+    /**
+     * @return the stored form of the given tuple.
+     */
+    private synchronized Tuple encode(Tuple t) throws IOException {
+        StringDictionary[] dictionaries = dictionaries();
+        Tuple stored = new Tuple(this.storedTd);
+        DataOutputStream out = null;
+        try {
+            for (int c = 0; c < dictionaries.length; c++) {
+                if (dictionaries[c] == null) {
+                    stored.setField(c, t.getField(c));
+                    continue;
+                }
+                String s = ((StringField) t.getField(c)).getValue();
+                int size = dictionaries[c].size();
+                int code = dictionaries[c].add(s);
+                if (code == size) {
+                    if (out == null) {
+                        out = new DataOutputStream(new BufferedOutputStream(
+                                new FileOutputStream(dictionaryFile(getFile()), true)));
+                    }
+                    out.writeInt(c);
+                    out.writeUTF(dictionaries[c].field(code).getValue());
+                }
+                stored.setField(c, new IntField(code));
+            }
+        } finally {
+            if (out != null) out.close();
+        }
+        return stored;
+    }
+
+    /**
+     * @return an iterator over the tuples of a page of this file, with the
+     *         codes of STRING fields replaced by their values.
+     */
+    protected Iterator<Tuple> pageIterator(Page page) {
+        final Iterator<Tuple> records = super.pageIterator(page);
+        final TupleDesc td = Database.getCatalog().getTupleDesc(id());
+        final StringDictionary[] dictionaries = this.dictionaries; // loaded with the page
+        return new Iterator<Tuple>() {
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            public Tuple next() {
+                Tuple record = records.next();
+                Tuple t = new Tuple(td);
+                for (int c = 0; c < dictionaries.length; c++) {
+                    Field f = record.getField(c);
+                    t.setField(c, dictionaries[c] == null ? f
+                            : dictionaries[c].field(((IntField) f).getValue()));
+                }
+                t.setRecordID(record.getRecordID());
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * An iterator over the tuples of this file that skips pages with the
+     * zone map.  The zone map holds the codes of STRING fields, which are
+     * not ordered like the values, so only equality predicates on those
+     * fields are used, turned into comparisons with the code of the value.
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        List<Predicate> stored = null;
+        if (predicates != null) {
+            try {
+                StringDictionary[] dictionaries = dictionaries();
+                stored = new ArrayList<Predicate>();
+                for (Predicate p : predicates) {
+                    StringDictionary d = dictionaries[p.getField()];
+                    if (d == null) {
+                        stored.add(p);
+                    } else if (p.getOp() == Predicate.Op.EQUALS) {
+                        int size = d.size();
+                        int code = d.code(((StringField) p.getOperand()).getValue());
+                        if (code >= 0) {
+                            stored.add(new Predicate(p.getField(), p.getOp(), new IntField(code)));
+                        } else {
+                            // a value that is not in the dictionary yet gets
+                            // the next free code if it is inserted while the
+                            // iterator is in use
+                            stored.add(new Predicate(p.getField(),
+                                    Predicate.Op.GREATER_THAN_OR_EQ, new IntField(size)));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // the pages can't be decoded either, which the scan will report
+                stored = null;
+            }
+        }
+        return super.iterator(tid, stored);
+    }
+
+    /**
+     * Deletes this file, its sidecars and its dictionaries.
+     */
+    public synchronized void delete() throws IOException {
+        super.delete();
+        dictionaryFile(getFile()).delete();
+    }
+
+    /**
+     * @return an empty DictionaryHeapFile stored in the given file.
+     */
+    protected HeapFile newVersion(File f) {
+        return new DictionaryHeapFile(f);
+    }
+}
@@ -11,7 +11,8 @@ public class Filter extends AbstractDbIterator {
 
     /**
      * Constructor accepts a predicate to apply and a child
-     * operator to read tuples to filter from.
+     * operator to read tuples to filter from.  A SeqScan child is told about
+     * the predicate so that it can skip pages that can't match.
      *
      * @param p     The predicate to filter tuples with
      * @param child The child operator
@@ -19,6 +20,9 @@ public class Filter extends AbstractDbIterator {
     public Filter(Predicate p, DbIterator child) {
         this.p = p;
         this.child = child;
+        if (child instanceof SeqScan) {
+            ((SeqScan) child).addPageFilter(p);
+        }
     }
 
     public TupleDesc getTupleDesc() {
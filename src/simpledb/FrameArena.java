@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena is a block of memory outside of the Java heap, allocated once
+ * and cut into frames of equal size, that the BufferPool reads pages into.
+ * Pages built on a frame decode their tuples straight from it, so the
+ * bytes of the pages in the pool cost the garbage collector nothing, and
+ * the pool takes exactly as much memory as the arena.
+ * <p/>
+ * Frames are handed out and given back by index.  The arena does no
+ * locking: the BufferPool allocates and frees frames with its lock held,
+ * while {@link #frame} may be called from any thread.
+ */
+public class FrameArena {
+    private final ByteBuffer memory;
+    private final int frameSize;
+    private final int[] free; // stack of free frames
+    private int numFree;
+
+    /**
+     * Constructor.
+     *
+     * @param numFrames the number of frames
+     * @param frameSize the number of bytes in a frame
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        this.memory = ByteBuffer.allocateDirect(numFrames * frameSize);
+        this.frameSize = frameSize;
+        this.free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            this.free[i] = numFrames - 1 - i;
+        }
+        this.numFree = numFrames;
+    }
+
+    /**
+     * @return the number of bytes in a frame.
+     */
+    public int frameSize() {
+        return this.frameSize;
+    }
+
+    /**
+     * @return the number of bytes taken by the arena.
+     */
+    public int capacity() {
+        return this.memory.capacity();
+    }
+
+    /**
+     * @return the number of frames not in use.
+     */
+    public int numFree() {
+        return this.numFree;
+    }
+
+    /**
+     * @return a free frame, now in use, or -1 if all are in use.
+     */
+    public int allocate() {
+        return this.numFree == 0 ? -1 : this.free[--this.numFree];
+    }
+
+    /**
+     * Gives back a frame that is no longer in use.
+     */
+    public void free(int frame) {
+        this.free[this.numFree++] = frame;
+    }
+
+    /**
+     * @return a buffer over the bytes of the given frame, with its position
+     *         at 0 and its limit at the end of the frame.
+     */
+    public ByteBuffer frame(int frame) {
+        ByteBuffer view = this.memory.duplicate();
+        view.position(frame * this.frameSize);
+        view.limit((frame + 1) * this.frameSize);
+        return view.slice();
+    }
+}
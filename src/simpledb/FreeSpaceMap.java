@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have an empty slot,
+ * so that inserts can go straight to such a page instead of probing every
+ * page of the file through the buffer pool.  It is persisted in a sidecar
+ * file holding the length and modification time of the heap file when the
+ * map was written, the number of pages it describes and then one bit per
+ * page.
+ * <p/>
+ * The map is only a hint: a set bit means the page is worth looking at, and
+ * the insert path clears it when the page turns out to be full.  Pages
+ * beyond the ones described by the sidecar (e.g. because the sidecar is
+ * missing or older than the heap file) are assumed to have space, so a
+ * stale map costs extra probes but never hides a page that has room.  The
+ * map is only saved when its file is closed, so a sidecar written before
+ * the heap file last changed, e.g. by a process that died before closing
+ * it, may mark pages full that have room since; it is ignored, and the map
+ * starts over with every page assumed to have space.
+ *
+ * @see HeapFile#addTuple
+ */
+public class FreeSpaceMap {
+    private final File file;
+    private final File data;
+    private final BitSet free = new BitSet();
+    private int numPages; // number of pages described by the map
+    private int lowWater; // no page below this one is marked free
+    private boolean dirty;
+
+    /**
+     * Constructor.
+     * Loads the map from the specified sidecar file if it exists, whatever
+     * heap file it was written for.
+     *
+     * @param file the sidecar file the map is kept in.
+     * @throws IOException if the sidecar exists but can't be read.
+     */
+    public FreeSpaceMap(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Constructor.
+     * Loads the map from the specified sidecar file if it exists and was
+     * written for the heap file as it is now.
+     *
+     * @param file the sidecar file the map is kept in.
+     * @param data the heap file the map describes, or null not to check
+     *             the sidecar against it
+     * @throws IOException if the sidecar exists but can't be read.
+     */
+    public FreeSpaceMap(File file, File data) throws IOException {
+        this.file = file;
+        this.data = data;
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                long length = in.readLong();
+                long modified = in.readLong();
+                if (data != null && (length != data.length() || modified != data.lastModified())) {
+                    return; // out of date: start over
+                }
+                this.numPages = in.readInt();
+                for (int i = 0; i < this.numPages; i += 8) {
+                    int bits = in.readUnsignedByte();
+                    for (int j = 0; j < 8 && i + j < this.numPages; j++) {
+                        if ((bits & (1 << j)) != 0) this.free.set(i + j);
+                    }
+                }
+            } catch (EOFException e) {
+                // truncated sidecar: forget what could not be read
+                this.numPages = this.free.length();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the first page at or after from that may have an empty slot.
+     *
+     * @param from     the first page to consider.
+     * @param numPages the number of pages currently in the heap file; pages
+     *                 the map has not seen before are assumed to have space.
+     * @return the page number, or -1 if no page in [from, numPages) has space.
+     */
+    public synchronized int nextFreePage(int from, int numPages) {
+        if (numPages > this.numPages) {
+            this.free.set(this.numPages, numPages);
+            this.lowWater = Math.min(this.lowWater, this.numPages);
+            this.numPages = numPages;
+            this.dirty = true;
+        }
+        int page = this.free.nextSetBit(Math.max(from, this.lowWater));
+        if (from <= this.lowWater) {
+            this.lowWater = page < 0 ? this.numPages : page;
+        }
+        return page < numPages ? page : -1;
+    }
+
+    /**
+     * Records whether the specified page has at least one empty slot.
+     */
+    public synchronized void setFree(int pageno, boolean hasSpace) {
+        if (this.free.get(pageno) == hasSpace && pageno < this.numPages) return;
+        this.free.set(pageno, hasSpace);
+        this.numPages = Math.max(this.numPages, pageno + 1);
+        if (hasSpace) this.lowWater = Math.min(this.lowWater, pageno);
+        this.dirty = true;
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed since it was loaded
+     * or last flushed, stamped with the length and modification time the
+     * heap file has now.
+     */
+    public synchronized void flush() throws IOException {
+        if (!this.dirty) return;
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(this.file)));
+        try {
+            out.writeLong(this.data == null ? -1 : this.data.length());
+            out.writeLong(this.data == null ? -1 : this.data.lastModified());
+            out.writeInt(this.numPages);
+            for (int i = 0; i < this.numPages; i += 8) {
+                int bits = 0;
+                for (int j = 0; j < 8; j++) {
+                    if (this.free.get(i + j)) bits |= 1 << j;
+                }
+                out.writeByte(bits);
+            }
+        } finally {
+            out.close();
+        }
+        this.dirty = false;
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -13,9 +15,13 @@ import java.util.*;
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
     private final File f;
-    private int numPages;
+    private int numPages = -1; // worked out on first use, once the table is in the catalog
+    private FileChannel channel; // shared by all readers, opened on first use
+    private FreeSpaceMap freeSpaceMap; // pages with empty slots, loaded on first update
+    private ZoneMap zoneMap; // bounds of the values on each page, loaded on first use
+    private final Object appendLock = new Object(); // held while adding pages at the end
 
     /**
      * Constructor.
@@ -25,7 +31,6 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f) {
         this.f = f;
-        this.numPages = (int) (f.length() / BufferPool.PAGE_SIZE);
     }
 
     /**
@@ -53,35 +58,222 @@ public class HeapFile implements DbFile {
      */
     public Page readPage(PageId pid) throws NoSuchElementException {
         int pageSize = bytesPerPage();
-        byte[] buf = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
         try {
-            RandomAccessFile raf = new RandomAccessFile(this.f, "r");
-            raf.skipBytes(pid.pageno() * pageSize);
-            raf.read(buf);
-            HeapPage page = new HeapPage((HeapPageId) pid, buf);
-            raf.close();
-            return page;
+            readFully(buf, (long) pid.pageno() * pageSize);
+            return newPage((HeapPageId) pid, buf.array());
+        } catch (IOException e) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Reads consecutive pages from the file with a single scatter read
+     * into one buffer per page.
+     */
+    public List<Page> readPages(PageId first, int count) throws NoSuchElementException {
+        int pageSize = bytesPerPage();
+        ByteBuffer[] bufs = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            bufs[i] = ByteBuffer.allocate(pageSize);
+        }
+        try {
+            readFully(bufs, (long) first.pageno() * pageSize);
+            List<Page> pages = new ArrayList<Page>(count);
+            for (int i = 0; i < count; i++) {
+                pages.add(newPage(new HeapPageId(first.tableid(), first.pageno() + i), bufs[i].array()));
+            }
+            return pages;
         } catch (IOException e) {
             throw new NoSuchElementException();
         }
     }
 
     /**
-     * Writes the given page to the appropriate location in the file.
+     * @return the page made of the given bytes read from the file.
+     */
+    protected Page newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Fills buf from the given file offset with positional reads, which do
+     * not touch the shared channel position and so are safe to issue from
+     * several threads at once.  Bytes past the end of the file are left
+     * zeroed, so a page that has not been written yet reads as empty.
+     */
+    protected void readFully(ByteBuffer buf, long position) throws IOException {
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) break;
+        }
+    }
+
+    /**
+     * Fills the buffers in turn from the given file offset with scatter
+     * reads.  These move the position of the shared channel, so they hold
+     * its lock; positional reads are not affected.
+     */
+    protected void readFully(ByteBuffer[] bufs, long position) throws IOException {
+        FileChannel ch = getChannel();
+        synchronized (ch) {
+            ch.position(position);
+            while (bufs[bufs.length - 1].hasRemaining()) {
+                if (ch.read(bufs) < 0) break;
+            }
+        }
+    }
+
+    /**
+     * @return the channel shared by all readers of this file, (re)opening it
+     *         if needed.  A channel gets closed under everybody if a thread
+     *         is interrupted in the middle of an I/O, so a closed channel is
+     *         simply reopened.
+     */
+    protected synchronized FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            String mode = this.f.canWrite() ? "rw" : "r";
+            this.channel = new RandomAccessFile(this.f, mode).getChannel();
+        }
+        return this.channel;
+    }
+
+    /**
+     * @return the map of pages that may have empty slots, kept in a sidecar
+     *         file named after this file with ".fsm" appended.
+     */
+    protected synchronized FreeSpaceMap freeSpaceMap() throws IOException {
+        if (this.freeSpaceMap == null) {
+            this.freeSpaceMap = new FreeSpaceMap(freeSpaceMapFile(this.f), this.f);
+        }
+        return this.freeSpaceMap;
+    }
+
+    /**
+     * @return the free space map sidecar of the given data file, named
+     *         after it with ".fsm" appended.
+     */
+    public static File freeSpaceMapFile(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * @return the zone map sidecar of the given data file, named after it
+     *         with ".zm" appended.
+     */
+    public static File zoneMapFile(File f) {
+        return new File(f.getPath() + ".zm");
+    }
+
+    /**
+     * @return the bounds of the values on each page, kept in the file given
+     *         by {@link #zoneMapFile}.
+     */
+    protected synchronized ZoneMap zoneMap() throws IOException {
+        if (this.zoneMap == null) {
+            this.zoneMap = new ZoneMap(zoneMapFile(this.f),
+                    Database.getCatalog().getTupleDesc(id()).numFields(), this.f.length());
+        }
+        return this.zoneMap;
+    }
+
+    /**
+     * Releases the file handle held by this HeapFile and saves its free
+     * space and zone maps.  Called by the Catalog when the table is dropped
+     * or replaced; a later read will open the file again.
+     */
+    public synchronized void close() throws IOException {
+        if (this.freeSpaceMap != null) {
+            this.freeSpaceMap.flush();
+            this.freeSpaceMap = null;
+        }
+        if (this.zoneMap != null) {
+            this.zoneMap.flush(this.f.length());
+            this.zoneMap = null;
+        }
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Releases the file handle held by this HeapFile and deletes it, with
+     * its sidecars.  Called by the Catalog when the table is dropped and
+     * nobody is reading it anymore.
+     */
+    public synchronized void delete() throws IOException {
+        this.freeSpaceMap = null;
+        this.zoneMap = null;
+        close();
+        this.f.delete();
+        freeSpaceMapFile(this.f).delete();
+        zoneMapFile(this.f).delete();
+    }
+
+    /**
+     * Writes the given page to the appropriate location in the file, with
+     * a positional write that does not disturb the readers.  Called by the
+     * BufferPool when it evicts or flushes a dirty page.
      */
     public void writePage(Page page) throws IOException {
-        // not necessary for this project
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long position = (long) page.id().pageno() * bytesPerPage();
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, position + buf.position());
+        }
+    }
+
+    /**
+     * Writes consecutive pages back to their place in the file with a
+     * single gather write.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[pages.size()];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(pages.get(i).getPageData());
+        }
+        writeFully(bufs, (long) pages.get(0).id().pageno() * bytesPerPage());
+    }
+
+    /**
+     * Writes the buffers in turn from the given file offset with gather
+     * writes, which move the position of the shared channel and so hold
+     * its lock, like the scatter reads.
+     */
+    protected void writeFully(ByteBuffer[] bufs, long position) throws IOException {
+        FileChannel ch = getChannel();
+        synchronized (ch) {
+            ch.position(position);
+            while (bufs[bufs.length - 1].hasRemaining()) {
+                ch.write(bufs);
+            }
+        }
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
-    public int numPages() {
+    public synchronized int numPages() {
+        if (this.numPages < 0) {
+            this.numPages = (int) (this.f.length() / bytesPerPage());
+        }
         return this.numPages;
     }
 
+    /**
+     * Records that a page has been added at the end of the file.
+     */
+    protected synchronized void incrementNumPages() {
+        this.numPages = numPages() + 1;
+    }
+
     /**
      * Adds the specified tuple to the table under the specified TransactionId.
+     * Only the pages that the free space map reports as having room are
+     * fetched; a new page is appended if there are none.  The zone map is
+     * widened to cover the tuple.
      *
      * @return An ArrayList contain the pages that were modified
      * @throws DbException
@@ -90,23 +282,247 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> result = new ArrayList<Page>();
-        for (int i = 0; i < numPages(); ++i) {
+        FreeSpaceMap fsm = freeSpaceMap();
+        ZoneMap zones = zoneMap();
+        for (int i = fsm.nextFreePage(0, numPages()); i >= 0;
+             i = fsm.nextFreePage(i + 1, numPages())) {
             HeapPage page = (HeapPage) Database.getBufferPool()
                     .getPage(tid, new HeapPageId(id(), i), Permissions.READ_WRITE);
             if (page.getNumEmptySlots() > 0) {
                 page.addTuple(t);
+                fsm.setFree(i, page.getNumEmptySlots() > 0);
+                zones.add(i, t);
                 result.add(page);
                 return result;
             }
+            fsm.setFree(i, false);
         }
-        HeapPage page = (HeapPage) Database.getBufferPool()
-                .getPage(tid, new HeapPageId(id(), numPages()), Permissions.READ_WRITE);
-        this.numPages++;
+        HeapPage page = (HeapPage) newPageAtEnd(tid);
         page.addTuple(t);
+        fsm.setFree(page.id().pageno(), page.getNumEmptySlots() > 0);
+        zones.setEmpty(page.id().pageno());
+        zones.add(page.id().pageno(), t);
         result.add(page);
         return result;
     }
 
+    /**
+     * @return a new empty page fetched through the BufferPool and counted
+     *         in numPages, which is added to the end of the file when it is
+     *         written.
+     */
+    protected Page newPageAtEnd(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        synchronized (this.appendLock) {
+            Page page = Database.getBufferPool()
+                    .getPage(tid, new HeapPageId(id(), numPages()), Permissions.READ_WRITE);
+            incrementNumPages();
+            return page;
+        }
+    }
+
+    /**
+     * Adds all the tuples of an open iterator to the table by packing them
+     * into new pages that are written straight to the end of the file, a
+     * batch of pages with each write, instead of going through addTuple and
+     * the BufferPool one tuple at a time.  The pages of a batch become
+     * visible to readers once they are on disk, when numPages is raised by
+     * the size of the batch.  The free space and zone maps are updated as
+     * for addTuple.  Appends to a file, including the pages addTuple adds,
+     * take turns; readers are not held up.  Copies of the new pages that
+     * the BufferPool holds from before they were written are discarded
+     * before each batch is written.
+     * <p/>
+     * The pages written this way are not dirtied in the BufferPool, so they
+     * are not undone if the transaction aborts.
+     *
+     * @param tuples an open iterator over the tuples to add, which must
+     *               have the schema of the table
+     * @return the number of tuples added
+     */
+    public int appendTuples(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        int perBatch = Math.max(1, HeapFileEncoder.IO_BUFFER_SIZE / bytesPerPage());
+        FreeSpaceMap fsm = freeSpaceMap();
+        ZoneMap zones = zoneMap();
+        int count = 0;
+        synchronized (this.appendLock) {
+            List<Page> batch = new ArrayList<Page>(perBatch);
+            Page page = null;
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                Tuple stored = page == null ? null : addToNewPage(page, t);
+                if (stored == null) {
+                    if (batch.size() == perBatch) {
+                        Database.getBufferPool().discardPages(id(), numPages());
+                        appendPages(batch);
+                        batch.clear();
+                    }
+                    int pageno = numPages() + batch.size();
+                    page = newPage(new HeapPageId(id(), pageno), new byte[bytesPerPage()]);
+                    batch.add(page);
+                    fsm.setFree(pageno, false);
+                    zones.setEmpty(pageno);
+                    stored = addToNewPage(page, t);
+                    if (stored == null)
+                        throw new DbException("tuple does not fit on an empty page");
+                }
+                zones.add(page.id().pageno(), stored);
+                count++;
+            }
+            if (!batch.isEmpty()) {
+                Database.getBufferPool().discardPages(id(), numPages());
+                appendPages(batch);
+                fsm.setFree(page.id().pageno(), true); // only the last page may have room
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds a tuple to a page being filled by appendTuples.
+     *
+     * @return the tuple as stored on the page, or null if the page has no
+     *         room for it.
+     */
+    protected Tuple addToNewPage(Page page, Tuple t) throws DbException {
+        HeapPage hp = (HeapPage) page;
+        if (hp.getNumEmptySlots() == 0) {
+            return null;
+        }
+        hp.addTuple(t);
+        return t;
+    }
+
+    /**
+     * Writes pages filled by appendTuples, numbered from numPages() on, at
+     * the end of the file with a single gather write, then counts them in
+     * numPages.
+     */
+    protected void appendPages(List<Page> pages) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[pages.size()];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(pages.get(i).getPageData());
+        }
+        FileChannel ch = getChannel();
+        synchronized (ch) {
+            ch.position((long) pages.get(0).id().pageno() * bytesPerPage());
+            while (bufs[bufs.length - 1].hasRemaining()) {
+                ch.write(bufs);
+            }
+        }
+        synchronized (this) {
+            this.numPages = numPages() + pages.size();
+        }
+    }
+
+    /**
+     * Rewrites the table densely into a new file, dropping the space of
+     * deleted tuples and empty pages, so that scans read only live data.
+     * The live tuples are copied, with appendTuples, into a new version of
+     * this file next to it (the same name with ".v1", ".v2", ... on the
+     * end), which gets new RecordIDs.  The version is then swapped in
+     * under the name of the table in the Catalog.
+     * <p/>
+     * Scans that are running, or set up before the swap, go on reading
+     * this file, which stays in the Catalog under its id until it is
+     * removed with {@link Catalog#dropTable}, and is only closed and
+     * deleted once the last of those scans is closed.  Changes made to this file
+     * while it is being copied are not carried over, so writers should be
+     * held off.
+     *
+     * @return the new version of the table.
+     */
+    public HeapFile vacuum(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        Catalog catalog = Database.getCatalog();
+        final TupleDesc td = catalog.getTupleDesc(id());
+        File dest = nextVersion(this.f);
+        if (!dest.createNewFile()) throw new IOException(dest + " already exists");
+        HeapFile version = newVersion(dest);
+        catalog.addVersion(id(), version);
+        boolean copied = false;
+        try {
+            final DbIterator live = new SeqScan(tid, id(), "");
+            // copy the tuples: the ones on our pages must keep their RecordIDs
+            DbIterator copies = new AbstractDbIterator() {
+                protected Tuple readNext() throws DbException, TransactionAbortedException {
+                    if (!live.hasNext()) return null;
+                    Tuple t = live.next();
+                    Tuple copy = new Tuple(td);
+                    for (int i = 0; i < td.numFields(); i++) {
+                        copy.setField(i, t.getField(i));
+                    }
+                    return copy;
+                }
+
+                public void open() throws DbException, TransactionAbortedException {
+                    live.open();
+                }
+
+                public void rewind() throws DbException, TransactionAbortedException {
+                    live.rewind();
+                }
+
+                public TupleDesc getTupleDesc() {
+                    return td;
+                }
+
+                public void close() {
+                    live.close();
+                    super.close();
+                }
+            };
+            copies.open();
+            try {
+                version.appendTuples(tid, copies);
+            } finally {
+                copies.close();
+            }
+            copied = true;
+        } finally {
+            if (!copied) {
+                catalog.dropTable(version.id());
+                dest.delete();
+            }
+        }
+        catalog.swapVersion(version.id());
+        return version;
+    }
+
+    /**
+     * @return the file for the next version of the given data file: its
+     *         name with the version number after it raised by one, and no
+     *         file, sidecars included, starting with that name.
+     */
+    static File nextVersion(File f) {
+        String name = f.getName();
+        int version = 0;
+        int dot = name.lastIndexOf(".v");
+        if (dot >= 0 && name.substring(dot + 2).matches("[0-9]+")) {
+            version = Integer.parseInt(name.substring(dot + 2));
+            name = name.substring(0, dot);
+        }
+        File dir = f.getAbsoluteFile().getParentFile();
+        String[] taken = dir.list();
+        while (true) {
+            String next = name + ".v" + ++version;
+            boolean free = true;
+            for (String other : taken == null ? new String[0] : taken) {
+                free &= !other.startsWith(next + ".") && !other.equals(next);
+            }
+            if (free) return new File(dir, next);
+        }
+    }
+
+    /**
+     * @return an empty file of the same format as this one, stored in the
+     *         given file.
+     */
+    protected HeapFile newVersion(File f) {
+        return new HeapFile(f);
+    }
+
     /**
      * Deletes the specified tuple from the table, under the specified
      * TransactionId.
@@ -118,6 +534,11 @@ public class HeapFile implements DbFile {
         HeapPage page = (HeapPage) Database.getBufferPool()
                 .getPage(tid, t.getRecordID().pageid(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        try {
+            freeSpaceMap().setFree(page.id().pageno(), true);
+        } catch (IOException e) {
+            throw new DbException("can't load the free space map: " + e.getMessage());
+        }
         return page;
     }
 
@@ -126,33 +547,88 @@ public class HeapFile implements DbFile {
      * Note that this iterator should use BufferPool.getPage(), rather than HeapFile.getPage()
      * to iterate through pages.
      */
-    public DbFileIterator iterator(final TransactionId tid) {
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * An iterator over the tuples on this file that skips the pages whose
+     * zone map shows that none of their tuples satisfies all of the given
+     * predicates; skipped pages are not fetched at all.  The tuples returned
+     * may still fail the predicates, so callers have to apply them.
+     *
+     * @param predicates predicates over the fields of this table, or null
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(final TransactionId tid, final List<Predicate> predicates) {
         return new AbstractDbFileIterator() {
             private int index;
             private Iterator<Tuple> inner;
+            private ZoneMap zones; // null unless pages may be skipped
+            private PageId pinned; // the page being read, pinned in pool
+            private BufferPool pool;
+            private boolean reading; // counted as a reader by the Catalog
 
             @Override
             protected Tuple readNext() throws DbException, TransactionAbortedException {
-                if (this.inner == null) {
-                    return null;
-                } else if (this.inner.hasNext()) {
-                    return this.inner.next();
-                } else {
-                    index++;
-                    if (index < numPages()) {
-                        open();
-                        return readNext();
-                    } else {
+                while (this.inner != null) {
+                    if (this.inner.hasNext()) {
+                        return this.inner.next();
+                    }
+                    index = skip(index + 1);
+                    if (index >= numPages()) {
+                        unpin();
                         return null;
                     }
+                    nextPage();
+                }
+                return null;
+            }
+
+            /**
+             * @return the first page from i on that may hold matching tuples
+             */
+            private int skip(int i) {
+                if (this.zones == null) return i;
+                while (i < numPages() && !this.zones.mayMatch(i, predicates)) i++;
+                return i;
+            }
+
+            private void nextPage() throws DbException, TransactionAbortedException {
+                unpin();
+                PageId pid = new HeapPageId(id(), this.index);
+                this.pool = Database.getBufferPool();
+                Page p = this.pool.pinPage(tid, pid, Permissions.READ_ONLY);
+                this.pinned = pid;
+                this.inner = pageIterator(p);
+            }
+
+            private void unpin() {
+                if (this.pinned != null) {
+                    this.pool.unpinPage(tid, this.pinned);
+                    this.pinned = null;
                 }
             }
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                HeapPage p = (HeapPage) Database.getBufferPool()
-                        .getPage(tid, new HeapPageId(id(), this.index), Permissions.READ_ONLY);
-                this.inner = p.iterator();
+                if (!this.reading) {
+                    Database.getCatalog().beginRead(id());
+                    this.reading = true;
+                }
+                if (predicates != null && !predicates.isEmpty()) {
+                    try {
+                        this.zones = zoneMap();
+                    } catch (IOException e) {
+                        throw new DbException("can't load the zone map: " + e.getMessage());
+                    }
+                }
+                this.index = skip(this.index);
+                if (this.index >= numPages()) {
+                    this.inner = Collections.<Tuple>emptyList().iterator();
+                } else {
+                    nextPage();
+                }
             }
 
             @Override
@@ -163,18 +639,32 @@ public class HeapFile implements DbFile {
 
             @Override
             public void close() {
+                unpin();
                 this.inner = null;
+                if (this.reading) {
+                    this.reading = false;
+                    Database.getCatalog().endRead(id());
+                }
                 super.close();
             }
         };
     }
 
+    /**
+     * @return an iterator over the tuples of a page of this file.
+     */
+    protected Iterator<Tuple> pageIterator(Page page) {
+        return ((HeapPage) page).iterator();
+    }
+
     /**
      * @return the number of bytes on a page, including the number of bytes
-     *         in the header.
+     *         in the header.  The page size of the table is recorded in the
+     *         catalog.
      */
     public int bytesPerPage() {
-        return BufferPool.PAGE_SIZE + (((BufferPool.PAGE_SIZE / Database.getCatalog()
+        int pageSize = Database.getCatalog().getPageSize(id());
+        return pageSize + (((pageSize / Database.getCatalog()
                 .getTupleDesc(id()).getSize()) / HeapPage.INTEGER_SIZE) + 1) * 4;
     }
 }
@@ -1,7 +1,13 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,205 +15,840 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * Tuples are encoded straight into page buffers, and pages are written out
+ * several at a time.  Large text files are split at line boundaries into
+ * one chunk per thread; each chunk is encoded into its own run of pages and
+ * the runs are then concatenated in input order, so only the last page of
+ * each run may be partly empty.
+ * <p>
+ * Text files can also be converted to the variable length page format read
+ * by SlottedHeapFile, and to the column by column format read by ColumnFile.
  */
 
 public class HeapFileEncoder {
 
-  static final int INT_SIZE = 4;
-
-  /** Convert the specified tuple list (with only integer fields) into a binary
-   * page file. <br>
-   *
-   * The format of the output file will be as specified in HeapPage and
-   * HeapFile.
-   *
-   * @see HeapPage
-   * @see HeapFile
-   * @param tuples the tuples - a list of tuples, each represented by a list of integers that are
-   *        the field values for that tuple.
-   * @param outFile The output file to write data to
-   * @param npagebytes The number of bytes per page in the output file
-   * @param numFields the number of fields in each input tuple
-   * @throws IOException if the temporary/output file can't be opened
-   */
-  public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-      File tempInput = File.createTempFile("tempTable", ".txt");
-      tempInput.deleteOnExit();
-      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-      for (ArrayList<Integer> tuple : tuples) {
-          int writtenFields = 0;
-          for (Integer field : tuple) {
-              writtenFields++;
-              if (writtenFields > numFields) {
-                  throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
-                          Utility.listToString(tuple) + ")");
-              }
-              bw.write(String.valueOf(field));
-              if (writtenFields < numFields) {
-                  bw.write(',');
-              }
-          }
-          bw.write('\n');
-      }
-      bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
-  }
-
-      public static void convert(File inFile, File outFile, int npagebytes,
-                 int numFields) throws IOException {
-      Type[] ts = new Type[numFields];
-      for (int i = 0; i < ts.length; i++) {
-          ts[i] = Type.INT_TYPE;
-      }
-      convert(inFile,outFile,npagebytes,numFields,ts);
-      }
-
-   /** Convert the specified input text file into a binary
-    * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
-    * ...<br>
-    * where each row represents a tuple.<br>
-    * <p>
-    * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
-    *
-    * @see HeapPage
-    * @see HeapFile
-    * @param inFile The input file to read data from
-    * @param outFile The output file to write data to
-    * @param npagebytes The number of bytes per page in the output file
-    * @param numFields the number of fields in each input line/output tuple
-    * @throws IOException if the input/output file can't be opened or a
-    *   malformed input line is encountered
-    */
-  public static void convert(File inFile, File outFile, int npagebytes,
-                 int numFields, Type[] typeAr)
-      throws IOException {
-
-      int nrecbytes = 0;//= numFields * INT_SIZE;
-      for (int i = 0; i < numFields ; i++) {
-      nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = npagebytes / nrecbytes;
-
-    // per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = ((nrecords / 32) + 1) * 4;
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    while (!done) {
-      int c = br.read();
-
-      if (c == '\n') {
-        recordcount++;
-      }
-      if (c == ',' || c == '\n' || c == '\r') {
-        String s = new String(buf, 0, curpos);
-    if (typeAr[fieldNo] == Type.INT_TYPE) {
-        // System.out.println("WROTE " + Integer.parseInt(s.trim()));
+    static final int INT_SIZE = 4;
+
+    /**
+     * Text files at least this large are encoded in parallel by default.
+     */
+    public static final long PARALLEL_THRESHOLD = 64L << 20;
+
+    /**
+     * Number of bytes read from or written to disk at a time.
+     */
+    static final int IO_BUFFER_SIZE = 1 << 20;
+
+    /** Convert the specified tuple list (with only integer fields) into a binary
+     * page file. <br>
+     *
+     * The format of the output file will be as specified in HeapPage and
+     * HeapFile.
+     *
+     * @see HeapPage
+     * @see HeapFile
+     * @param tuples the tuples - a list of tuples, each represented by a list of integers that are
+     *        the field values for that tuple.
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input tuple
+     * @throws IOException if the output file can't be opened
+     */
+    public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+        FileOutputStream os = new FileOutputStream(outFile);
+        PageEncoder encoder = new PageEncoder(os.getChannel(), npagebytes,
+                Utility.getTypes(numFields));
         try {
-        pageStream.writeInt(Integer.parseInt(s.trim()));
-        } catch (NumberFormatException e) {
-        System.out.println ("BAD LINE : " + s);
-        }
-    }
-    else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-            s = s.trim();
-        int overflow = Type.STRING_LEN - s.length();
-        if (overflow < 0) {
-        String news = s.substring(0,Type.STRING_LEN);
-        s  = news;
-        }
-        pageStream.writeInt(s.length());
-        //System.out.println(s.trim());
-        //int  oldPos = pageStream.size();
-        pageStream.writeBytes(s);
-        //System.out.println ("nb = " + ( pageStream.size() - oldPos) + " expected = " + s.trim().length());
-        while (overflow-- > 0)
-        pageStream.write((byte)0);
-    }
-        curpos = 0;
-    if (c == '\n')
-        fieldNo = 0;
-    else
-        fieldNo++;
-
-      } else if (c == -1) {
-        done = true;
-
-      } else {
-        buf[curpos++] = (char)c;
-        continue;
-      }
-
-      // if we wrote a full page of records, or if we're done altogether,
-      // write out the header of the page.
-      //
-      // in the header, write a 1 for bits that correspond to records we've
-      // written and 0 for empty slots.
-      //
-      // when we're done, also flush the page to disk, but only if it has
-      // records on it.  however, if this file is empty, do flush an empty
-      // page to disk.
-      if (recordcount >= nrecords
-          || done && recordcount > 0
-          || done && npages == 0) {
-        int i = 0, headerint = 0;
-
-        for (i=0; i<nheaderbits; i++) {
-          if (i < recordcount)
-            headerint |= (1 << (i % 32));
-
-          if (((i+1) % 32) == 0) {
-            headerStream.writeInt(headerint);
-            headerint = 0;
-          }
-        }
-
-        if (i % 32 > 0)
-          headerStream.writeInt(headerint);
-
-        // pad the rest of the page with zeroes
-        for (i=0; i<(npagebytes - recordcount * nrecbytes); i++)
-          pageStream.write(0);
-
-        // write header and body to file
-        headerStream.flush();
-        headerBAOS.writeTo(os);
-        pageStream.flush();
-        pageBAOS.writeTo(os);
-
-        // reset header and body for next page
-        headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-        headerStream = new DataOutputStream(headerBAOS);
-        pageBAOS = new ByteArrayOutputStream(npagebytes);
-        pageStream = new DataOutputStream(pageBAOS);
-
-        recordcount = 0;
-        npages++;
-      }
-    }
-    br.close();
-    os.close();
-  }
+            for (ArrayList<Integer> tuple : tuples) {
+                if (tuple.size() != numFields) {
+                    throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
+                            Utility.listToString(tuple) + ")");
+                }
+                for (Integer field : tuple) {
+                    encoder.putInt(field);
+                }
+                encoder.endRecord();
+            }
+            encoder.finish(true);
+        } finally {
+            os.close();
+        }
+        writeZoneMap(outFile, numFields, Collections.singletonList(encoder.zones()));
+    }
+
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               int numFields) throws IOException {
+        convert(inFile, outFile, npagebytes, numFields, Utility.getTypes(numFields));
+    }
+
+    /** Convert the specified input text file into a binary
+     * page file, in parallel if the file is at least PARALLEL_THRESHOLD
+     * bytes long. <br>
+     * Assume format of the input file is:<br>
+     * field,...,field\n<br>
+     * field,...,field\n<br>
+     * ...<br>
+     * where each row represents a tuple and each field is an int or a string
+     * as specified by typeAr.  Blank lines are skipped.<br>
+     * <p>
+     * The format of the output file will be as specified in HeapPage and
+     * HeapFile.
+     *
+     * @see HeapPage
+     * @see HeapFile
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr)
+            throws IOException {
+        int nthreads = inFile.length() >= PARALLEL_THRESHOLD
+                ? Runtime.getRuntime().availableProcessors() : 1;
+        convert(inFile, outFile, npagebytes, numFields, typeAr, nthreads);
+    }
+
+    /** Convert the specified input text file into a binary page file using
+     * up to nthreads threads.  See {@link #convert(File, File, int, int, Type[])}
+     * for the input format.
+     *
+     * @param nthreads the number of chunks the input is split into and
+     *   encoded in parallel
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr, int nthreads)
+            throws IOException {
+        convertText(inFile, outFile, npagebytes, Arrays.copyOf(typeAr, numFields), nthreads, false);
+    }
+
+    /** Convert the specified input text file into a file of variable length
+     * slotted pages, in parallel if the file is at least PARALLEL_THRESHOLD
+     * bytes long.  See {@link #convert(File, File, int, int, Type[])} for the
+     * input format.
+     *
+     * @see SlottedPage
+     * @see SlottedHeapFile
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                                      int numFields, Type[] typeAr)
+            throws IOException {
+        int nthreads = inFile.length() >= PARALLEL_THRESHOLD
+                ? Runtime.getRuntime().availableProcessors() : 1;
+        convertText(inFile, outFile, npagebytes, Arrays.copyOf(typeAr, numFields), nthreads, true);
+    }
+
+    /** Convert the specified input text file into a DictionaryHeapFile: heap
+     * pages in which each STRING field holds the code of its value, plus the
+     * dictionaries of the codes next to the file.  See
+     * {@link #convert(File, File, int, int, Type[])} for the input format.
+     * Codes are given out in the order of the input, so the file is encoded
+     * by a single thread.
+     *
+     * @see DictionaryHeapFile
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static void convertDictionary(File inFile, File outFile, int npagebytes,
+                                         int numFields, Type[] typeAr)
+            throws IOException {
+        Type[] types = Arrays.copyOf(typeAr, numFields);
+        StringDictionary[] dictionaries = DictionaryHeapFile.newDictionaries(types);
+        FileOutputStream os = new FileOutputStream(outFile);
+        PageEncoder encoder = new PageEncoder(os.getChannel(), npagebytes, types, dictionaries);
+        try {
+            parseText(inFile, 0, inFile.length(), encoder);
+            encoder.finish(true);
+        } finally {
+            os.close();
+        }
+        DictionaryHeapFile.writeDictionaries(outFile, dictionaries);
+        writeZoneMap(outFile, numFields, Collections.singletonList(encoder.zones()));
+    }
+
+    /** Convert the specified input text file into a ColumnFile.  See
+     * {@link #convert(File, File, int, int, Type[])} for the input format.
+     * Each column is first encoded into a temporary file of its own, next
+     * to outFile, and the columns are then copied after the header.
+     *
+     * @see ColumnPage
+     * @see ColumnFile
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static void convertColumnar(File inFile, File outFile, int numFields, Type[] typeAr)
+            throws IOException {
+        FileOutputStream os = new FileOutputStream(outFile);
+        ColumnEncoder encoder = null;
+        try {
+            encoder = new ColumnEncoder(os.getChannel(), Arrays.copyOf(typeAr, numFields),
+                    outFile.getAbsoluteFile().getParentFile());
+            parseText(inFile, 0, inFile.length(), encoder);
+            encoder.finish(true);
+        } finally {
+            if (encoder != null) encoder.close();
+            os.close();
+        }
+    }
+
+    private static Encoder newEncoder(FileChannel out, int npagebytes, Type[] types,
+                                      boolean slotted) {
+        return slotted ? new SlottedPageEncoder(out, npagebytes, types)
+                : new PageEncoder(out, npagebytes, types);
+    }
+
+    private static void convertText(final File inFile, File outFile, final int npagebytes,
+                                    final Type[] types, int nthreads, final boolean slotted)
+            throws IOException {
+        long[] bounds = splitLines(inFile, Math.max(1, nthreads));
+
+        if (bounds.length == 2) {
+            FileOutputStream os = new FileOutputStream(outFile);
+            Encoder encoder = newEncoder(os.getChannel(), npagebytes, types, slotted);
+            try {
+                parseText(inFile, bounds[0], bounds[1], encoder);
+                encoder.finish(true);
+            } finally {
+                os.close();
+            }
+            writeZoneMap(outFile, types.length, Collections.singletonList(encoder.zones()));
+            return;
+        }
+
+        // encode each chunk into its own run file, then concatenate the runs
+        File dir = outFile.getAbsoluteFile().getParentFile();
+        final List<File> runs = new ArrayList<File>();
+        final ZoneMap[] zones = new ZoneMap[bounds.length - 1]; // of each run, set by its task
+        ExecutorService pool = Executors.newFixedThreadPool(bounds.length - 1);
+        try {
+            List<Future<Integer>> pages = new ArrayList<Future<Integer>>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                final File run = File.createTempFile("run", ".run", dir);
+                final long start = bounds[i], end = bounds[i + 1];
+                final int runNo = i;
+                runs.add(run);
+                pages.add(pool.submit(new Callable<Integer>() {
+                    public Integer call() throws IOException {
+                        FileOutputStream os = new FileOutputStream(run);
+                        try {
+                            Encoder encoder = newEncoder(os.getChannel(), npagebytes, types, slotted);
+                            parseText(inFile, start, end, encoder);
+                            zones[runNo] = encoder.zones();
+                            return encoder.finish(false);
+                        } finally {
+                            os.close();
+                        }
+                    }
+                }));
+            }
+
+            int npages = 0;
+            for (Future<Integer> f : pages) {
+                npages += get(f);
+            }
+
+            FileOutputStream os = new FileOutputStream(outFile);
+            try {
+                FileChannel out = os.getChannel();
+                for (File run : runs) {
+                    FileInputStream is = new FileInputStream(run);
+                    try {
+                        FileChannel in = is.getChannel();
+                        long pos = 0, size = in.size();
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
+                    } finally {
+                        is.close();
+                    }
+                }
+                if (npages == 0) {
+                    // if this file is empty, do write an empty page to disk
+                    Encoder empty = newEncoder(out, npagebytes, types, slotted);
+                    empty.finish(true);
+                    zones[0] = empty.zones();
+                }
+            } finally {
+                os.close();
+            }
+            writeZoneMap(outFile, types.length, Arrays.asList(zones));
+        } finally {
+            pool.shutdownNow();
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the zone map of a newly encoded file next to it, made of the
+     * maps of the runs the file was encoded in, in order.  Does nothing for
+     * formats that have no zone map.
+     *
+     * @see HeapFile#zoneMapFile
+     */
+    private static void writeZoneMap(File outFile, int numFields, List<ZoneMap> runs)
+            throws IOException {
+        File zmFile = HeapFile.zoneMapFile(outFile);
+        zmFile.delete();
+        if (runs.contains(null)) return;
+        ZoneMap zones = new ZoneMap(zmFile, numFields, outFile.length());
+        for (ZoneMap run : runs) {
+            zones.append(run);
+        }
+        zones.flush(outFile.length());
+    }
+
+    private static int get(Future<Integer> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(String.valueOf(cause));
+        }
+    }
+
+    /**
+     * Splits the file into n ranges of about equal size that start at the
+     * beginning of a line.
+     *
+     * @return the offsets where the ranges start, followed by the file
+     *   length; empty ranges are dropped.
+     */
+    static long[] splitLines(File inFile, int n) throws IOException {
+        long length = inFile.length();
+        long[] bounds = new long[n + 1];
+        int count = 1;
+        RandomAccessFile raf = new RandomAccessFile(inFile, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            for (int i = 1; i < n; i++) {
+                long pos = Math.max(length * i / n, bounds[count - 1]);
+                // move just past the end of the line that contains pos - 1
+                boolean found = pos == 0;
+                while (!found && pos < length) {
+                    buf.clear();
+                    int read = ch.read(buf, pos - 1);
+                    if (read <= 0) break;
+                    for (int j = 0; j < read; j++) {
+                        if (buf.get(j) == '\n') {
+                            pos += j;
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) pos += read;
+                }
+                if (found && pos > bounds[count - 1] && pos < length) {
+                    bounds[count++] = pos;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        bounds[count++] = length;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Parses the lines in [start, end) of the text file into the encoder.
+     */
+    static void parseText(File inFile, long start, long end, Encoder encoder)
+            throws IOException {
+        Type[] typeAr = encoder.types();
+        byte[] field = new byte[1024];
+        int fieldLen = 0;
+        int fieldNo = 0;
+        boolean blank = true; // nothing seen on this line yet
+
+        RandomAccessFile raf = new RandomAccessFile(inFile, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            long pos = start;
+            boolean done = false;
+            while (!done) {
+                buf.clear();
+                if (end - pos < buf.capacity()) buf.limit((int) (end - pos));
+                int read = buf.limit() == 0 ? -1 : ch.read(buf, pos);
+                if (read <= 0) {
+                    done = true;
+                    read = 0;
+                }
+                pos += read;
+                byte[] bytes = buf.array();
+                for (int i = 0; i <= read; i++) {
+                    // a missing newline at the very end still ends a line
+                    int c = i < read ? bytes[i] & 0xff : (done && !blank ? '\n' : -1);
+                    if (c == -1) break;
+                    if (c == '\r') continue;
+                    if (c == ',' || c == '\n') {
+                        if (c == '\n' && blank) continue;
+                        blank = false;
+                        if (fieldNo >= typeAr.length) {
+                            throw new IOException("Line has more than " + typeAr.length
+                                    + " fields: " + new String(field, 0, fieldLen));
+                        }
+                        encoder.putField(fieldNo++, field, fieldLen);
+                        fieldLen = 0;
+                        if (c == '\n') {
+                            if (fieldNo != typeAr.length) {
+                                throw new IOException("Line has " + fieldNo + " fields instead of "
+                                        + typeAr.length);
+                            }
+                            encoder.endRecord();
+                            fieldNo = 0;
+                            blank = true;
+                        }
+                    } else {
+                        if (fieldLen == field.length) field = Arrays.copyOf(field, fieldLen * 2);
+                        field[fieldLen++] = (byte) c;
+                        blank = false;
+                    }
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Encodes records, one field at a time, into pages of some format and
+     * writes the pages to a channel, a batch of pages at a time.
+     */
+    static abstract class Encoder {
+        protected final FileChannel out;
+        protected final Type[] typeAr;
+        protected final int pagebytes;
+        protected final ByteBuffer batch; // consecutive pages, written out together
+        protected int page; // offset of the page being filled in batch
+        protected int npages; // pages written or in batch
+
+        Encoder(FileChannel out, int pagebytes, Type[] typeAr) {
+            this.out = out;
+            this.typeAr = typeAr;
+            this.pagebytes = pagebytes;
+            this.batch = ByteBuffer.allocate(Math.max(1, IO_BUFFER_SIZE / pagebytes) * pagebytes);
+        }
+
+        Type[] types() {
+            return this.typeAr;
+        }
+
+        abstract void putInt(int value);
+
+        abstract void putString(byte[] s, int off, int len);
+
+        abstract void endRecord() throws IOException;
+
+        /**
+         * @return the bounds of the values on each page written, or null if
+         *         the format has no zone map.
+         */
+        ZoneMap zones() {
+            return null;
+        }
+
+        /**
+         * Writes out the page being filled if it has records on it (or if
+         * the file would otherwise be empty and emptyPage is set) and any
+         * pages still in the batch.
+         *
+         * @return the number of pages written
+         */
+        abstract int finish(boolean emptyPage) throws IOException;
+
+        /**
+         * Encodes the text of field fieldNo, trimming surrounding whitespace.
+         */
+        void putField(int fieldNo, byte[] text, int len) {
+            int from = 0;
+            while (from < len && (text[from] & 0xff) <= ' ') from++;
+            while (len > from && (text[len - 1] & 0xff) <= ' ') len--;
+            if (this.typeAr[fieldNo] == Type.STRING_TYPE) {
+                putString(text, from, len - from);
+            } else {
+                try {
+                    putInt(parseInt(text, from, len));
+                } catch (NumberFormatException e) {
+                    System.out.println("BAD LINE : " + new String(text, from, len - from));
+                    putInt(0);
+                }
+            }
+        }
+
+        /**
+         * Moves on to the next page of the batch once the current one is
+         * complete, writing the batch out when it is full.
+         */
+        protected void nextPage() throws IOException {
+            this.npages++;
+            this.page += this.pagebytes;
+            if (this.page == this.batch.capacity()) {
+                flush();
+            }
+        }
+
+        protected void flush() throws IOException {
+            this.batch.position(0);
+            this.batch.limit(this.page);
+            while (this.batch.hasRemaining()) {
+                this.out.write(this.batch);
+            }
+            this.batch.clear();
+            this.page = 0;
+        }
+
+        private static int parseInt(byte[] s, int from, int to) {
+            if (from == to) throw new NumberFormatException();
+            boolean negative = s[from] == '-';
+            if (negative || s[from] == '+') from++;
+            if (from == to) throw new NumberFormatException();
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                int digit = s[i] - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException();
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) throw new NumberFormatException();
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) throw new NumberFormatException();
+            return (int) value;
+        }
+    }
+
+    /**
+     * Encodes records into heap pages.  A page is a header of
+     * ((nrecords / 32) + 1) ints, with one bit set per record on the page,
+     * followed by npagebytes bytes of records and zero padding.  With
+     * dictionaries, STRING fields are stored as the INT code of their value.
+     *
+     * @see HeapPage
+     */
+    static class PageEncoder extends Encoder {
+        private final int nrecbytes;
+        private final int nrecords;
+        private final int nheaderbytes;
+        private int recordcount; // records on the page being filled
+        private int pos; // where the next field goes in batch
+        private int field; // field of the record being filled that goes next
+        private final ZoneMap zones;
+        private final StringDictionary[] dictionaries; // by field, or null
+
+        PageEncoder(FileChannel out, int npagebytes, Type[] typeAr) {
+            this(out, npagebytes, typeAr, null);
+        }
+
+        PageEncoder(FileChannel out, int npagebytes, Type[] typeAr, StringDictionary[] dictionaries) {
+            super(out, headerBytes(npagebytes, stored(typeAr, dictionaries)) + npagebytes, typeAr);
+            Type[] stored = stored(typeAr, dictionaries);
+            this.dictionaries = dictionaries;
+            this.nrecbytes = recordBytes(stored);
+            this.nrecords = npagebytes / nrecbytes;
+            this.nheaderbytes = headerBytes(npagebytes, stored);
+            this.pos = nheaderbytes;
+            try {
+                this.zones = new ZoneMap(null, typeAr.length, 0);
+            } catch (IOException e) {
+                throw new RuntimeException(e); // there is no file to read
+            }
+        }
+
+        private static Type[] stored(Type[] typeAr, StringDictionary[] dictionaries) {
+            return dictionaries == null ? typeAr : DictionaryHeapFile.storedTypes(typeAr);
+        }
+
+        private static int recordBytes(Type[] typeAr) {
+            int nrecbytes = 0;
+            for (Type t : typeAr) {
+                nrecbytes += t.getLen();
+            }
+            return nrecbytes;
+        }
+
+        // per record, we need one bit; there are nrecords per page, so we need
+        // nrecords bits, i.e., ((nrecords/32)+1) integers.
+        private static int headerBytes(int npagebytes, Type[] typeAr) {
+            return ((npagebytes / recordBytes(typeAr) / 32) + 1) * INT_SIZE;
+        }
+
+        ZoneMap zones() {
+            return this.zones;
+        }
+
+        private void addKey(long key) {
+            if (this.recordcount == 0 && this.field == 0) {
+                this.zones.setEmpty(this.npages);
+            }
+            this.zones.add(this.npages, this.field++, key);
+        }
+
+        void putInt(int value) {
+            addKey(value);
+            this.batch.putInt(this.pos, value);
+            this.pos += INT_SIZE;
+        }
+
+        void putString(byte[] s, int off, int len) {
+            len = Math.min(len, Type.STRING_LEN);
+            if (this.dictionaries != null) {
+                putInt(this.dictionaries[this.field].add(new String(s, off, len)));
+                return;
+            }
+            addKey(ZoneMap.key(s, off, len));
+            this.batch.putInt(this.pos, len);
+            System.arraycopy(s, off, this.batch.array(), this.pos + INT_SIZE, len);
+            Arrays.fill(this.batch.array(), this.pos + INT_SIZE + len,
+                    this.pos + Type.STRING_TYPE.getLen(), (byte) 0);
+            this.pos += Type.STRING_TYPE.getLen();
+        }
+
+        void endRecord() throws IOException {
+            this.field = 0;
+            this.recordcount++;
+            if (this.recordcount >= this.nrecords) {
+                endPage();
+            }
+            this.pos = this.page + this.nheaderbytes + this.recordcount * this.nrecbytes;
+        }
+
+        int finish(boolean emptyPage) throws IOException {
+            if (this.recordcount > 0 || emptyPage && this.npages == 0) {
+                endPage();
+            }
+            flush();
+            return this.npages;
+        }
+
+        private void endPage() throws IOException {
+            if (this.recordcount == 0) {
+                this.zones.setEmpty(this.npages);
+            }
+            byte[] a = this.batch.array();
+            // in the header, write a 1 for bits that correspond to records
+            // we've written and 0 for empty slots.
+            Arrays.fill(a, this.page, this.page + this.nheaderbytes, (byte) 0);
+            int full = this.recordcount / 32;
+            for (int i = 0; i < full; i++) {
+                this.batch.putInt(this.page + i * INT_SIZE, -1);
+            }
+            if (this.recordcount % 32 > 0) {
+                this.batch.putInt(this.page + full * INT_SIZE, (1 << (this.recordcount % 32)) - 1);
+            }
+            // pad the rest of the page with zeroes
+            Arrays.fill(a, this.page + this.nheaderbytes + this.recordcount * this.nrecbytes,
+                    this.page + this.pagebytes, (byte) 0);
+
+            this.recordcount = 0;
+            nextPage();
+        }
+    }
+
+    /**
+     * Encodes records into slotted pages of npagebytes bytes: a record is
+     * first put together on its own, then copied below the records already
+     * on the page, or onto a new page if it does not fit.
+     *
+     * @see SlottedPage
+     */
+    static class SlottedPageEncoder extends Encoder {
+        private final ByteBuffer record;
+        private int nslots; // records on the page being filled
+        private int end; // offset (within the page) of the lowest record
+
+        SlottedPageEncoder(FileChannel out, int npagebytes, Type[] typeAr) {
+            super(out, npagebytes, typeAr);
+            this.record = ByteBuffer.allocate(SlottedPage.maxRecordSize(new TupleDesc(typeAr)));
+            this.end = npagebytes;
+        }
+
+        void putInt(int value) {
+            this.record.putInt(value);
+        }
+
+        void putString(byte[] s, int off, int len) {
+            len = Math.min(len, Type.STRING_LEN);
+            this.record.put((byte) len);
+            this.record.put(s, off, len);
+        }
+
+        void endRecord() throws IOException {
+            int len = this.record.position();
+            int dirEnd = SlottedPage.HEADER_SIZE + (this.nslots + 1) * SlottedPage.SLOT_SIZE;
+            if (this.end - len < dirEnd) {
+                endPage();
+            }
+            this.end -= len;
+            System.arraycopy(this.record.array(), 0, this.batch.array(), this.page + this.end, len);
+            int slot = this.page + SlottedPage.HEADER_SIZE + this.nslots * SlottedPage.SLOT_SIZE;
+            this.batch.putShort(slot, (short) this.end);
+            this.batch.putShort(slot + 2, (short) len);
+            this.nslots++;
+            this.record.clear();
+        }
+
+        int finish(boolean emptyPage) throws IOException {
+            if (this.nslots > 0 || emptyPage && this.npages == 0) {
+                endPage();
+            }
+            flush();
+            return this.npages;
+        }
+
+        private void endPage() throws IOException {
+            this.batch.putShort(this.page, (short) this.nslots);
+            this.batch.putShort(this.page + 2, (short) this.end);
+            // zero the free space between the slot directory and the records
+            Arrays.fill(this.batch.array(),
+                    this.page + SlottedPage.HEADER_SIZE + this.nslots * SlottedPage.SLOT_SIZE,
+                    this.page + this.end, (byte) 0);
+
+            this.nslots = 0;
+            this.end = this.pagebytes;
+            nextPage();
+        }
+    }
+
+    /**
+     * Encodes records into the column segments of a ColumnFile.  Each
+     * column is buffered and written to a temporary file of its own; finish
+     * writes the header page and then copies the columns after it.
+     *
+     * @see ColumnFile
+     */
+    static class ColumnEncoder extends Encoder {
+        private final File[] segments;
+        private final FileChannel[] columns;
+        private final ByteBuffer[] buffers; // pages of each column not yet written
+        private final int[] perPage; // values on a full page of each column
+        private int field; // column of the next value
+        private int nrows;
+
+        ColumnEncoder(FileChannel out, Type[] typeAr, File dir) throws IOException {
+            super(out, BufferPool.PAGE_SIZE, typeAr);
+            int n = typeAr.length;
+            this.segments = new File[n];
+            this.columns = new FileChannel[n];
+            this.buffers = new ByteBuffer[n];
+            this.perPage = new int[n];
+            int pages = Math.max(1, IO_BUFFER_SIZE / n / BufferPool.PAGE_SIZE);
+            try {
+                for (int c = 0; c < n; c++) {
+                    this.segments[c] = File.createTempFile("column" + c, ".seg", dir);
+                    this.columns[c] = new RandomAccessFile(this.segments[c], "rw").getChannel();
+                    this.buffers[c] = ByteBuffer.allocate(pages * BufferPool.PAGE_SIZE);
+                    this.perPage[c] = ColumnPage.valuesPerPage(typeAr[c]);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // zero the rest of the page being filled and move on to the next one
+        private void padPage(ByteBuffer buf) {
+            int end = (buf.position() + BufferPool.PAGE_SIZE - 1)
+                    / BufferPool.PAGE_SIZE * BufferPool.PAGE_SIZE;
+            Arrays.fill(buf.array(), buf.position(), end, (byte) 0);
+            buf.position(end);
+        }
+
+        void putInt(int value) {
+            this.buffers[this.field++].putInt(value);
+        }
+
+        void putString(byte[] s, int off, int len) {
+            len = Math.min(len, Type.STRING_LEN);
+            ByteBuffer buf = this.buffers[this.field++];
+            int pos = buf.position();
+            buf.putInt(len);
+            buf.put(s, off, len);
+            Arrays.fill(buf.array(), buf.position(), pos + Type.STRING_TYPE.getLen(), (byte) 0);
+            buf.position(pos + Type.STRING_TYPE.getLen());
+        }
+
+        void endRecord() throws IOException {
+            this.field = 0;
+            this.nrows++;
+            for (int c = 0; c < this.buffers.length; c++) {
+                if (this.nrows % this.perPage[c] == 0) {
+                    // the page of this column is full
+                    padPage(this.buffers[c]);
+                    if (!this.buffers[c].hasRemaining()) writeColumn(c);
+                }
+            }
+        }
+
+        private void writeColumn(int c) throws IOException {
+            ByteBuffer buf = this.buffers[c];
+            buf.flip();
+            while (buf.hasRemaining()) {
+                this.columns[c].write(buf);
+            }
+            buf.clear();
+        }
+
+        /**
+         * Writes the header page, then the columns.  The header is always
+         * written, so emptyPage is ignored.
+         */
+        int finish(boolean emptyPage) throws IOException {
+            this.batch.clear();
+            this.batch.putInt(0, this.typeAr.length);
+            this.batch.putInt(4, this.nrows);
+            Arrays.fill(this.batch.array(), ColumnFile.HEADER_SIZE, BufferPool.PAGE_SIZE, (byte) 0);
+            this.page = BufferPool.PAGE_SIZE;
+            this.npages = 1;
+            flush();
+
+            for (int c = 0; c < this.columns.length; c++) {
+                padPage(this.buffers[c]);
+                writeColumn(c);
+                FileChannel in = this.columns[c];
+                long pos = 0, size = in.size();
+                while (pos < size) {
+                    pos += in.transferTo(pos, size - pos, this.out);
+                }
+                this.npages += (int) (size / BufferPool.PAGE_SIZE);
+            }
+            return this.npages;
+        }
+
+        /**
+         * Closes and deletes the temporary column files.
+         */
+        void close() throws IOException {
+            for (int c = 0; c < this.columns.length; c++) {
+                if (this.columns[c] != null) this.columns[c].close();
+                if (this.segments[c] != null) this.segments[c].delete();
+            }
+        }
+    }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that
@@ -12,53 +13,124 @@ import java.io.*;
  */
 public class HeapPage implements Page {
     public static final int INTEGER_SIZE = 32;
-    private boolean dirty = false;
+    private volatile boolean dirty = false;
     private TransactionId dirtier = null;
 
     private final HeapPageId pid;
     private final TupleDesc td;
     private final int header[];
-    private final Tuple tuples[];
+    private final Tuple tuples[]; // tuples handed out or added so far, by slot
     private final int numSlots;
+    private final int pageSize; // bytes of tuple slots and padding
+    private int numEmptySlots;
+    private volatile ByteBuffer data; // the page as read from disk
 
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of 32-bit header words indicating
-     * the slots of the page that are in use, plus (BufferPool.PAGE_SIZE/tuple
-     * size) tuple slots, where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * the slots of the page that are in use, plus (page size/tuple size)
+     * tuple slots, where tuple size is the size of tuples in this database
+     * table, which can be determined via {@link Catalog#getTupleDesc}, and
+     * page size is given by {@link Catalog#getPageSize}.
      * <p/>
      * The number of 32-bit header words is equal to:
      * <p/>
      * (no. tuple slots / 32) + 1
      * <p/>
+     * Only the header is parsed here.  The page keeps the raw bytes, and a
+     * tuple (and each of its fields) is decoded the first time it is asked
+     * for, so a scan that looks at one column of a wide table only pays for
+     * that column.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page in the format
+     * described above, starting at the buffer's current position.  The
+     * buffer itself is not modified, so this can be used to build pages
+     * straight from a read-only view of the file such as a mapped region.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.tableid()));
+    }
+
+    /**
+     * Create a HeapPage whose records are laid out according to the given
+     * TupleDesc rather than the schema of the table, for files that store
+     * some fields in another form than they are returned in.
+     *
+     * @see DictionaryHeapFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.tableid());
-        this.numSlots = BufferPool.PAGE_SIZE / td.getSize();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.td = td;
+        this.pageSize = Database.getCatalog().getPageSize(id.tableid());
+        this.numSlots = this.pageSize / td.getSize();
+        ByteBuffer in = data.slice();
 
         // allocate and read the header slots of this page
         header = new int[(numSlots / 32) + 1];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readInt();
+        if (in.remaining() < header.length * 4 + numSlots * td.getSize())
+            throw new EOFException("page is shorter than " + numSlots + " slots");
+        numEmptySlots = numSlots;
+        for (int i = 0; i < header.length; i++) {
+            header[i] = in.getInt();
+            numEmptySlots -= Integer.bitCount(header[i] & slotMask(i));
+        }
 
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < numSlots; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        this.data = in;
+    }
+
+    /**
+     * Moves the bytes of this page to the given buffer: they are copied to
+     * it, and from then on the tuples of the page, including those made
+     * so far, decode their fields from there.  The BufferPool uses this to
+     * move pages into and out of the frames of its {@link FrameArena}.
+     * Tuples decode their fields with the page's lock held, as this does,
+     * so the old buffer can be reused as soon as this returns.
+     *
+     * @param to a buffer holding at least as many bytes as this page from
+     *           its position on
+     * @return false if the page does not fit in the buffer.
+     */
+    synchronized boolean moveTo(ByteBuffer to) {
+        ByteBuffer from = this.data;
+        if (to.remaining() < from.capacity()) return false;
+        ByteBuffer copy = to.slice();
+        copy.limit(from.capacity());
+        ByteBuffer all = from.duplicate();
+        all.clear();
+        copy.put(all);
+        copy.position(from.position());
+        this.data = copy;
+        for (Tuple t : this.tuples) {
+            if (t != null) t.rebind(from, copy);
         }
-        dis.close();
+        return true;
+    }
 
+    /**
+     * Moves the bytes of this page to a new buffer on the Java heap.
+     */
+    void moveToHeap() {
+        moveTo(ByteBuffer.allocate(this.data.capacity()));
+    }
+
+    /**
+     * @return true if the bytes of this page are outside of the Java heap.
+     */
+    boolean isOffHeap() {
+        return this.data.isDirect();
     }
 
     /**
@@ -78,36 +150,23 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of the given slot in the page data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!getSlot(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int slotOffset(int slotId) {
+        return header.length * 4 + slotId * td.getSize();
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordID rid = new RecordID(pid, slotId);
-        t.setRecordID(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns the tuple in the given (used) slot, creating it on first access.
+     * Its fields are decoded from the page data when they are first read.
+     */
+    private synchronized Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(slotId), this);
+            t.setRecordID(new RecordID(pid, slotId));
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
@@ -122,10 +181,12 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
-    public byte[] getPageData() {
-        int len = header.length * 4 + BufferPool.PAGE_SIZE;
+    public synchronized byte[] getPageData() {
+        int len = header.length * 4 + this.pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
+        ByteBuffer raw = data.duplicate();
+        byte[] slot = new byte[td.getSize()];
 
         // create the header of the page
         for (int i = 0; i < header.length; i++) {
@@ -152,6 +213,18 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never looked at: copy it verbatim
+            if (tuples[i] == null) {
+                raw.position(slotOffset(i));
+                raw.get(slot);
+                try {
+                    dos.write(slot, 0, slot.length);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -164,7 +237,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - numSlots * td.getSize();
+        int zerolen = this.pageSize - numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -193,8 +266,9 @@ public class HeapPage implements Page {
      */
     public static byte[] createEmptyPageData(int tableid) {
         TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
-        int hb = (((BufferPool.PAGE_SIZE / td.getSize()) / 32) + 1) * 4;
-        int len = BufferPool.PAGE_SIZE + hb;
+        int pageSize = Database.getCatalog().getPageSize(tableid);
+        int hb = (((pageSize / td.getSize()) / 32) + 1) * 4;
+        int len = pageSize + hb;
         return new byte[len]; //all 0
     }
 
@@ -228,8 +302,10 @@ public class HeapPage implements Page {
         if (!td.equals(t.getTupleDesc())) {
             throw new DbException("tupledesc s mismatch");
         }
-        for (int index = 0; index < numSlots; index++) {
-            if (!getSlot(index)) {
+        for (int w = 0; w < header.length; w++) {
+            int empty = ~header[w] & slotMask(w);
+            if (empty != 0) {
+                int index = w * INTEGER_SIZE + Integer.numberOfTrailingZeros(empty);
                 t.setRecordID(new RecordID(pid, index));
                 tuples[index] = t;
                 setSlot(index, true);
@@ -243,8 +319,8 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        this.dirty = dirty;
         if (dirty) this.dirtier = tid;
+        this.dirty = dirty; // publishes dirtier
     }
 
     /**
@@ -261,13 +337,30 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int empty = 0;
-        for (int index = 0; index < this.numSlots; index++) {
-            if (!getSlot(index)) {
-                empty++;
-            }
+        return this.numEmptySlots;
+    }
+
+    /**
+     * @return a mask of the bits of header word w that stand for slots of
+     *         this page; the last word is only partly used.
+     */
+    private int slotMask(int w) {
+        int slots = this.numSlots - w * INTEGER_SIZE;
+        return slots >= INTEGER_SIZE ? -1 : (1 << slots) - 1;
+    }
+
+    /**
+     * @return the first used slot at or after slot i, or -1 if there is none.
+     */
+    private int nextUsedSlot(int i) {
+        if (i >= this.numSlots) return -1;
+        int w = i / INTEGER_SIZE;
+        int used = header[w] & slotMask(w) & (-1 << (i % INTEGER_SIZE));
+        while (used == 0) {
+            if (++w == header.length) return -1;
+            used = header[w] & slotMask(w);
         }
-        return empty;
+        return w * INTEGER_SIZE + Integer.numberOfTrailingZeros(used);
     }
 
     /**
@@ -281,11 +374,14 @@ public class HeapPage implements Page {
      * Abstraction to fill a slot on this page.
      */
     private void setSlot(int i, boolean value) {
+        if (getSlot(i) == value) return;
         int mask = 0x01 << (i % INTEGER_SIZE);
         if (value) {
           header[i / INTEGER_SIZE] |= mask;
+          numEmptySlots--;
         } else {
           header[i / INTEGER_SIZE] &= ~mask;
+          numEmptySlots++;
         }
     }
 
@@ -296,7 +392,7 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         return new Iterator<Tuple>() {
-            private int notEmptySlotIndex = findNextNotEmptySlot();
+            private int notEmptySlotIndex = nextUsedSlot(0);
 
             @Override
             public boolean hasNext() {
@@ -306,8 +402,8 @@ public class HeapPage implements Page {
             @Override
             public Tuple next() {
                 if (!hasNext()) throw new NoSuchElementException();
-                Tuple tuple = tuples[this.notEmptySlotIndex++];
-                this.notEmptySlotIndex = findNextNotEmptySlot();
+                Tuple tuple = getTuple(this.notEmptySlotIndex++);
+                this.notEmptySlotIndex = nextUsedSlot(this.notEmptySlotIndex);
                 return tuple;
             }
 
@@ -315,15 +411,6 @@ public class HeapPage implements Page {
             public void remove() {
                 throw new UnsupportedOperationException();
             }
-
-            private int findNextNotEmptySlot() {
-                for (int index = this.notEmptySlotIndex; index < numSlots; index++) {
-                    if (getSlot(index)) {
-                        return index;
-                    }
-                }
-                return -1;
-            }
         };
     }
 }
@@ -1,12 +1,21 @@
 package simpledb;
+import java.io.IOException;
 import java.util.*;
 
 /**
  * Inserts tuples read from the child operator into
- * the tableid specified in the constructor
+ * the tableid specified in the constructor.  Tuples go in one at a time
+ * through the BufferPool, which dirties the pages they land on, unless
+ * there are more of them than fit on a page of a HeapFile: those are
+ * appended in bulk with {@link HeapFile#appendTuples}, to new pages that
+ * are not undone if the transaction aborts.
  */
-// Not necessary for this project
 public class Insert extends AbstractDbIterator {
+    private final TransactionId tid;
+    private final DbIterator child;
+    private final int tableid;
+    private final TupleDesc td = new TupleDesc(new Type[]{ Type.INT_TYPE });
+    private boolean done; // whether the tuples have been inserted
 
     /**
      * Constructor.
@@ -17,24 +26,31 @@ public class Insert extends AbstractDbIterator {
      */
     public Insert(TransactionId t, DbIterator child, int tableid)
         throws DbException {
-    	 // Not necessary for this project
+        if (!child.getTupleDesc().equals(Database.getCatalog().getTupleDesc(tableid))) {
+            throw new DbException("the child's tuples don't match the table");
+        }
+        this.tid = t;
+        this.child = child;
+        this.tableid = tableid;
     }
 
     public TupleDesc getTupleDesc() {
-    	 // Not necessary for this project
-        return null;
+        return this.td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
-    	 // Not necessary for this project
+        this.child.open();
+        this.done = false;
     }
 
     public void close() {
-    	 // Not necessary for this project
+        this.child.close();
+        super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-    	 // Not necessary for this project
+        this.child.rewind();
+        this.done = false;
     }
 
     /**
@@ -45,15 +61,69 @@ public class Insert extends AbstractDbIterator {
      * DOES NOT need check to see if a particular tuple is a duplicate before
      * inserting it.
      *
-     * @return A 1-field tuple containing the number of inserted records.
+     * @return A 1-field tuple containing the number of inserted records, or
+     * null once that tuple has been returned.
      * @see Database#getBufferPool
      * @see BufferPool#insertTuple
-     * @throws NoSuchElementException When the child iterator has no more
-     * tuples.
      */
     protected Tuple readNext()
         throws NoSuchElementException, TransactionAbortedException, DbException {
-    	 // Not necessary for this project
-        return null;
+        if (this.done) {
+            return null;
+        }
+        this.done = true;
+        DbFile file = Database.getCatalog().getDbFile(this.tableid);
+        int count = 0;
+        try {
+            // a page's worth of tuples is read ahead to see if it is a bulk load
+            final List<Tuple> first = new ArrayList<Tuple>();
+            if (file instanceof HeapFile) {
+                int perPage = ((HeapFile) file).bytesPerPage() / this.child.getTupleDesc().getSize();
+                while (first.size() <= perPage && this.child.hasNext()) {
+                    first.add(this.child.next());
+                }
+                if (first.size() > perPage) {
+                    return count(((HeapFile) file).appendTuples(this.tid, new AbstractDbIterator() {
+                        private final Iterator<Tuple> buffered = first.iterator();
+
+                        protected Tuple readNext() throws DbException, TransactionAbortedException {
+                            if (this.buffered.hasNext()) return this.buffered.next();
+                            return Insert.this.child.hasNext() ? Insert.this.child.next() : null;
+                        }
+
+                        public void open() {
+                        }
+
+                        public void rewind() {
+                            throw new UnsupportedOperationException();
+                        }
+
+                        public TupleDesc getTupleDesc() {
+                            return Insert.this.child.getTupleDesc();
+                        }
+                    }));
+                }
+            }
+            for (Tuple t : first) {
+                Database.getBufferPool().insertTuple(this.tid, this.tableid, t);
+                count++;
+            }
+            while (this.child.hasNext()) {
+                Database.getBufferPool().insertTuple(this.tid, this.tableid, this.child.next());
+                count++;
+            }
+        } catch (IOException e) {
+            throw new DbException("can't insert into table " + this.tableid + ": " + e.getMessage());
+        }
+        return count(count);
+    }
+
+    /**
+     * @return the 1-field tuple holding the number of inserted records.
+     */
+    private Tuple count(int count) {
+        Tuple t = new Tuple(this.td);
+        t.setField(0, new IntField(count));
+        return t;
     }
 }
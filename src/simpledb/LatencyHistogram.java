@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts durations in buckets whose bounds grow by powers
+ * of two: bucket 0 holds the durations under a microsecond, and bucket i
+ * those from 2^(i-1) up to 2^i microseconds, the last bucket taking all
+ * longer ones.  Recording takes no lock, so the BufferPool can time every
+ * read and write with it.
+ */
+public class LatencyHistogram {
+    /**
+     * Number of buckets; the last one starts at about 18 minutes.
+     */
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Counts a duration.
+     *
+     * @param nanos the duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        this.counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * @return the number of durations counted in each bucket.
+     */
+    public long[] counts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.counts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of microseconds the durations in the given bucket
+     *         are under, or Long.MAX_VALUE for the last one.
+     */
+    public static long upperBoundMicros(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * @param counts   the counts of a histogram, as returned by counts()
+     * @param fraction the fraction of the durations, between 0 and 1
+     * @return the upper bound, in microseconds, of the bucket that holds
+     *         the given fraction of the durations counted, or 0 if there
+     *         are none.
+     */
+    public static long percentileMicros(long[] counts, double fraction) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) return 0;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= fraction * total) return upperBoundMicros(i);
+        }
+        return upperBoundMicros(counts.length - 1);
+    }
+}
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruPolicy evicts the page that was least recently used.  The pages are
+ * kept in order of use, so each use moves a page to the end of a list.
+ */
+public class LruPolicy implements ReplacementPolicy {
+    private final LinkedHashMap<PageId, Boolean> pages =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true); // least recently used first
+
+    public void added(PageId pid) {
+        this.pages.put(pid, Boolean.TRUE);
+    }
+
+    public void accessed(PageId pid) {
+        this.pages.get(pid);
+    }
+
+    public void rejected(PageId pid) {
+        this.pages.put(pid, Boolean.TRUE);
+    }
+
+    public void removed(PageId pid) {
+        this.pages.remove(pid);
+    }
+
+    public PageId evict(Set<PageId> pinned) {
+        for (Iterator<PageId> it = this.pages.keySet().iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (!pinned.contains(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
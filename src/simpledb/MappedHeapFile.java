@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a HeapFile for read-mostly tables that maps the
+ * underlying file into memory instead of reading it page by page.  Pages
+ * are built directly from the mapped region, so a page that is already in
+ * the OS page cache is returned without a system call or an extra copy of
+ * its bytes; the page cache effectively becomes a second tier behind the
+ * BufferPool, which still fetches pages through {@link #readPage}.
+ * <p/>
+ * A single MappedByteBuffer can address at most 2GB, so the file is mapped
+ * in segments of whole pages, each mapped on first use.  Writes go through
+ * the regular HeapFile path; a page that lies beyond the mapped part of the
+ * file (e.g. one that was appended since) causes its segment to be
+ * remapped.
+ * <p/>
+ * The mapping shows the writes as soon as they are made, so the pages built
+ * on the bytes of a page that is written, whose tuples are decoded from
+ * them lazily, are first moved to the Java heap, and keep the bytes they
+ * were read with.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+    /**
+     * Default upper bound on the number of bytes in one mapping.
+     */
+    public static final long DEFAULT_SEGMENT_BYTES = 1L << 30;
+
+    private final long maxSegmentBytes;
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private final Map<HeapPage, Boolean> mapped = new WeakHashMap<HeapPage, Boolean>(); // pages built on the mappings
+
+    /**
+     * Constructor.
+     *
+     * @param f The file that stores the on-disk backing store for this DbFile.
+     */
+    public MappedHeapFile(File f) {
+        this(f, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param f               The file that stores the on-disk backing store for this DbFile.
+     * @param maxSegmentBytes upper bound on the size of one mapping; it is
+     *                        rounded down to a whole number of pages.
+     */
+    public MappedHeapFile(File f, long maxSegmentBytes) {
+        super(f);
+        if (maxSegmentBytes <= 0 || maxSegmentBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("bad segment size " + maxSegmentBytes);
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Returns a Page from the file, built on top of the mapped region.
+     */
+    public Page readPage(PageId pid) throws NoSuchElementException {
+        int pageSize = bytesPerPage();
+        synchronized (this.mapped) {
+            try {
+                ByteBuffer mapped = mapPage(pid.pageno(), pageSize);
+                if (mapped == null) {
+                    // not on disk yet: let HeapFile hand out an empty page
+                    return super.readPage(pid);
+                }
+                HeapPage page = new HeapPage((HeapPageId) pid, mapped);
+                this.mapped.put(page, Boolean.TRUE);
+                return page;
+            } catch (IOException e) {
+                throw new NoSuchElementException();
+            }
+        }
+    }
+
+    /**
+     * Writes the given page to the file, once the pages built on its mapped
+     * bytes have been moved to the heap.
+     */
+    public void writePage(Page page) throws IOException {
+        synchronized (this.mapped) {
+            copyOut(page.id().pageno(), 1);
+            super.writePage(page);
+        }
+    }
+
+    /**
+     * Writes consecutive pages to the file, once the pages built on their
+     * mapped bytes have been moved to the heap.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        synchronized (this.mapped) {
+            copyOut(pages.get(0).id().pageno(), pages.size());
+            super.writePages(pages);
+        }
+    }
+
+    /**
+     * Moves the pages built on the mapped bytes of count pages from first
+     * on to the heap, before those bytes change.
+     */
+    private void copyOut(int first, int count) {
+        Iterator<HeapPage> it = this.mapped.keySet().iterator();
+        while (it.hasNext()) {
+            HeapPage page = it.next();
+            int pageno = page.id().pageno();
+            if (pageno >= first && pageno < first + count) {
+                page.moveToHeap();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns consecutive pages from the file.  They are already mapped, so
+     * this takes no more system calls than reading them one at a time.
+     */
+    public List<Page> readPages(PageId first, int count) throws NoSuchElementException {
+        List<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++) {
+            pages.add(readPage(new HeapPageId(first.tableid(), first.pageno() + i)));
+        }
+        return pages;
+    }
+
+    /**
+     * @return a view of the mapped bytes of the given page, or null if the
+     *         page lies beyond the end of the file.
+     */
+    private ByteBuffer mapPage(int pageno, int pageSize) throws IOException {
+        long pagesPerSegment = Math.max(1, this.maxSegmentBytes / pageSize);
+        long segmentBytes = pagesPerSegment * pageSize;
+        int index = (int) (pageno / pagesPerSegment);
+        int offset = (int) ((pageno % pagesPerSegment) * pageSize);
+
+        ByteBuffer view = segment(index, segmentBytes, offset + pageSize).duplicate();
+        if (view.capacity() < offset + pageSize) return null;
+        view.position(offset);
+        view.limit(offset + pageSize);
+        return view.slice();
+    }
+
+    /**
+     * @return the mapping of the given segment, (re)mapping it if it does
+     *         not yet cover the first needed bytes of the segment.
+     */
+    private synchronized MappedByteBuffer segment(int index, long segmentBytes, int needed)
+            throws IOException {
+        while (this.segments.size() <= index) {
+            this.segments.add(null);
+        }
+        MappedByteBuffer segment = this.segments.get(index);
+        if (segment == null || segment.capacity() < needed) {
+            FileChannel ch = getChannel();
+            long start = index * segmentBytes;
+            long size = Math.max(0, Math.min(segmentBytes, ch.size() - start));
+            segment = ch.map(FileChannel.MapMode.READ_ONLY, start, size);
+            this.segments.set(index, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Drops the mappings and releases the file handle.  The mapped memory is
+     * given back once the pages built on top of it are garbage collected.
+     */
+    public synchronized void close() throws IOException {
+        this.segments.clear();
+        super.close();
+    }
+
+    /**
+     * @return an empty MappedHeapFile stored in the given file, mapped in
+     *         segments of the same size as this one.
+     */
+    protected HeapFile newVersion(File f) {
+        return new MappedHeapFile(f, this.maxSegmentBytes);
+    }
+}
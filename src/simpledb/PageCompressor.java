@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PageCompressor compresses page images for CompressedHeapFile.  It knows
+ * two codecs and keeps whichever output is smaller, falling back to
+ * storing the page as is:
+ * <ul>
+ * <li>ZEROS, a run-length code for zero bytes, which is cheap and all that
+ * is needed for the empty slots and string padding in HeapPages;</li>
+ * <li>LZ, an LZ77 code with a small hash table of recent 4 byte sequences,
+ * which also catches repeated strings and values.</li>
+ * </ul>
+ * A compressed page is one byte naming the codec followed by its output.
+ * Both codecs are made of sequences of a literal run followed by a repeat:
+ * the varint length of the literals, the literals, then for ZEROS the
+ * varint number of zero bytes, and for LZ the varint length and varint
+ * distance back of a match.  Decoding stops once the page is full.
+ */
+public class PageCompressor {
+    static final byte STORED = 0;
+    static final byte ZEROS = 1;
+    static final byte LZ = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 12;
+
+    private PageCompressor() {
+    }
+
+    /**
+     * @return the compressed form of the page.
+     */
+    public static byte[] compress(byte[] page) {
+        Output best = zeros(page);
+        Output lz = lz(page, best == null ? page.length : best.len);
+        if (lz != null) best = lz;
+        if (best == null) {
+            best = new Output(page.length + 1);
+            best.write(STORED);
+            best.write(page, 0, page.length);
+        }
+        return Arrays.copyOf(best.buf, best.len);
+    }
+
+    /**
+     * @param data     the buffer holding a compressed page.
+     * @param offset   where the compressed page starts in data.
+     * @param length   the length of the compressed page.
+     * @param pageSize the size of the page once decompressed.
+     * @return the page.
+     * @throws IOException if data is not a valid compressed page.
+     */
+    public static byte[] decompress(byte[] data, int offset, int length, int pageSize)
+            throws IOException {
+        byte[] page = new byte[pageSize];
+        int[] pos = new int[]{ offset + 1 };
+        int end = offset + length;
+        try {
+            switch (data[offset]) {
+            case STORED:
+                if (length - 1 != pageSize) throw new IOException("bad stored page length");
+                System.arraycopy(data, offset + 1, page, 0, pageSize);
+                return page;
+            case ZEROS:
+            case LZ:
+                int out = 0;
+                while (true) {
+                    int literals = readVarint(data, pos, end);
+                    if (literals > pageSize - out || literals > end - pos[0])
+                        throw new IOException("literal run out of bounds");
+                    System.arraycopy(data, pos[0], page, out, literals);
+                    pos[0] += literals;
+                    out += literals;
+                    if (out == pageSize) return page;
+
+                    int repeat = readVarint(data, pos, end);
+                    if (repeat > pageSize - out) throw new IOException("repeat out of bounds");
+                    if (data[offset] == ZEROS) {
+                        // the page is zero filled already
+                        out += repeat;
+                    } else {
+                        int distance = readVarint(data, pos, end);
+                        if (distance <= 0 || distance > out) throw new IOException("bad match distance");
+                        for (int i = 0; i < repeat; i++, out++) {
+                            page[out] = page[out - distance];
+                        }
+                    }
+                    if (out == pageSize) return page;
+                }
+            default:
+                throw new IOException("unknown page codec " + data[offset]);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("truncated compressed page");
+        }
+    }
+
+    /**
+     * @return the ZEROS encoding of page, or null if it is no smaller than
+     *         the page.
+     */
+    private static Output zeros(byte[] page) {
+        Output out = new Output(page.length / 4);
+        out.write(ZEROS);
+        int i = 0;
+        while (i < page.length) {
+            int start = i;
+            // a zero run shorter than 3 bytes costs more than it saves
+            while (i < page.length && !(page[i] == 0 && zerosFrom(page, i, 3) == 3)) i++;
+            out.writeVarint(i - start);
+            out.write(page, start, i - start);
+            if (i == page.length) break;
+            int run = zerosFrom(page, i, page.length);
+            out.writeVarint(run);
+            i += run;
+            if (out.len >= page.length) return null;
+        }
+        return out.len < page.length ? out : null;
+    }
+
+    private static int zerosFrom(byte[] page, int from, int max) {
+        int n = 0;
+        while (n < max && from + n < page.length && page[from + n] == 0) n++;
+        return n;
+    }
+
+    /**
+     * @return the LZ encoding of page, or null if it is not smaller than
+     *         limit bytes.
+     */
+    private static Output lz(byte[] page, int limit) {
+        Output out = new Output(page.length / 4);
+        out.write(LZ);
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= page.length) {
+            int word = readInt(page, i);
+            int h = (word * 0x9E3779B1) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || readInt(page, ref) != word) {
+                i++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (i + len < page.length && page[ref + len] == page[i + len]) len++;
+            out.writeVarint(i - anchor);
+            out.write(page, anchor, i - anchor);
+            out.writeVarint(len);
+            out.writeVarint(i - ref);
+            i += len;
+            anchor = i;
+            if (out.len >= limit) return null;
+        }
+        out.writeVarint(page.length - anchor);
+        out.write(page, anchor, page.length - anchor);
+        return out.len < limit ? out : null;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) << 24 | (b[i + 1] & 0xff) << 16 | (b[i + 2] & 0xff) << 8 | (b[i + 3] & 0xff);
+    }
+
+    private static int readVarint(byte[] data, int[] pos, int end) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] >= end) throw new IOException("truncated compressed page");
+            int b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("bad varint");
+    }
+
+    /** A growable output buffer. */
+    private static class Output {
+        byte[] buf;
+        int len;
+
+        Output(int capacity) {
+            this.buf = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensure(int n) {
+            if (this.len + n > this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + n));
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            this.buf[this.len++] = (byte) b;
+        }
+
+        void write(byte[] b, int off, int n) {
+            ensure(n);
+            System.arraycopy(b, off, this.buf, this.len, n);
+            this.len += n;
+        }
+
+        void writeVarint(int v) {
+            while ((v & ~0x7f) != 0) {
+                write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+    }
+}
@@ -7,6 +7,8 @@ public class Predicate {
     private final  Op op;
     private final Field operand;
     private final String description;
+    private StringDictionary dictionary; // of the last coded field compared for equality
+    private int code; // of the operand in that dictionary
 
     /** Constants used for return codes in Field.compare */
     public enum Op {
@@ -47,17 +49,52 @@ public class Predicate {
         this.description = "f = " + field + " op = " + op + " operand = " + operand;
     }
 
+    /**
+     * @return the field number of the tuples that this predicate compares
+     */
+    public int getField() {
+        return this.field;
+    }
+
+    /**
+     * @return the operation this predicate applies
+     */
+    public Op getOp() {
+        return this.op;
+    }
+
+    /**
+     * @return the value fields are compared to
+     */
+    public Field getOperand() {
+        return this.operand;
+    }
+
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific
      * in the constructor.  The comparison can be made through Field's
      * compare method.
      *
+     * Equality with a field of a dictionary encoded column compares codes:
+     * the operand is looked up once in the dictionary of the column, or
+     * again while the dictionary doesn't have it, since inserts add to it.
+     *
      * @param t The tuple to compare against
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        return t.getField(this.field).compare(this.op, this.operand);
+        Field f = t.getField(this.field);
+        if (this.op == Op.EQUALS && f instanceof CodedStringField
+                && this.operand instanceof StringField) {
+            CodedStringField coded = (CodedStringField) f;
+            if (coded.getDictionary() != this.dictionary || this.code < 0) {
+                this.code = coded.getDictionary().code(((StringField) this.operand).getValue());
+                this.dictionary = coded.getDictionary();
+            }
+            return coded.getCode() == this.code;
+        }
+        return f.compare(this.op, this.operand);
     }
 
     /**
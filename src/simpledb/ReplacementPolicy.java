@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.util.Set;
+
+/**
+ * A ReplacementPolicy picks the pages the BufferPool evicts when it needs
+ * room.  The pool tells it which pages come in, are used and go out, and
+ * asks it for a victim among the pages that are not pinned.
+ * <p/>
+ * Policies are only called with the BufferPool's lock held, so they need
+ * no synchronization of their own.
+ *
+ * @see ClockPolicy
+ * @see LruPolicy
+ * @see TwoQueuePolicy
+ */
+public interface ReplacementPolicy {
+    /**
+     * Records that a page was put in the pool.
+     */
+    void added(PageId pid);
+
+    /**
+     * Records that a page in the pool was fetched again.
+     */
+    void accessed(PageId pid);
+
+    /**
+     * Records that a page left the pool without being chosen by evict.
+     */
+    void removed(PageId pid);
+
+    /**
+     * Takes back the page the last call to evict chose, which stays in the
+     * pool for now because it has to be written first.  It goes back where
+     * evict found it, and neither counts as a use nor as a page fetched
+     * again after it was evicted.
+     */
+    void rejected(PageId pid);
+
+    /**
+     * Chooses a page to evict, and forgets it.
+     *
+     * @param pinned pages that must stay in the pool
+     * @return the page to evict, or null if every page is pinned.
+     */
+    PageId evict(Set<PageId> pinned);
+}
@@ -10,7 +10,11 @@ public class SeqScan implements DbIterator {
     private final TransactionId tid; // The transaction this scan is running as a part of
     private final int tableid; // the table to scan
     private final String tableAlias; // the alias of this table
-    private final DbFileIterator inner; // inner iterator
+    private final int[] fields; // the fields of the table returned by this scan, null for all
+    private final TupleDesc td; // the fields returned by this scan
+    private final List<Predicate> pageFilters = new ArrayList<Predicate>(); // over the fields of the table
+    private DbFileIterator inner; // inner iterator
+    private boolean opened;
 
     /**
      * Constructor.
@@ -29,7 +33,86 @@ public class SeqScan implements DbIterator {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        this.inner = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        this.fields = null;
+        this.td = Database.getCatalog().getTupleDesc(tableid);
+        this.inner = createIterator();
+    }
+
+    /**
+     * Constructor.
+     * Creates a sequential scan over some of the fields of the specified
+     * table.  Tables stored in a ColumnFile only read those columns; for
+     * other tables the fields are picked out of each tuple.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param fields the indexes of the fields of the table to return, in order
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.fields = fields.clone();
+        this.td = TupleDesc.project(Database.getCatalog().getTupleDesc(tableid), fields);
+        this.inner = createIterator();
+    }
+
+    /**
+     * Lets the scan skip pages that hold no tuple satisfying p, when the
+     * table keeps a zone map (see {@link HeapFile#iterator(TransactionId, List)}).
+     * Tuples that fail p may still be returned, so the caller has to apply
+     * it as well; Filter does this for a SeqScan child.  Has no effect once
+     * the scan has been opened.
+     *
+     * @param p a predicate over the fields returned by this scan
+     */
+    public void addPageFilter(Predicate p) {
+        if (this.opened) return;
+        int field = this.fields == null ? p.getField() : this.fields[p.getField()];
+        this.pageFilters.add(new Predicate(field, p.getOp(), p.getOperand()));
+        this.inner = createIterator();
+    }
+
+    private DbFileIterator createIterator() {
+        DbFile file = Database.getCatalog().getDbFile(this.tableid);
+        if (this.fields != null && file instanceof ColumnFile) {
+            return ((ColumnFile) file).iterator(this.tid, this.fields);
+        }
+        final DbFileIterator rows = file instanceof HeapFile
+                ? ((HeapFile) file).iterator(this.tid, this.pageFilters)
+                : file.iterator(this.tid);
+        if (this.fields == null) {
+            return rows;
+        }
+        final int[] fields = this.fields;
+        return new AbstractDbFileIterator() {
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!rows.hasNext()) return null;
+                Tuple row = rows.next();
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < fields.length; i++) {
+                    t.setField(i, row.getField(fields[i]));
+                }
+                t.setRecordID(row.getRecordID());
+                return t;
+            }
+
+            public void open() throws DbException, TransactionAbortedException {
+                rows.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                rows.rewind();
+            }
+
+            @Override
+            public void close() {
+                rows.close();
+                super.close();
+            }
+        };
     }
 
     /**
@@ -38,6 +121,7 @@ public class SeqScan implements DbIterator {
      */
     public void open()
         throws DbException, TransactionAbortedException {
+        this.opened = true;
         this.inner.open();
     }
 
@@ -47,7 +131,7 @@ public class SeqScan implements DbIterator {
      *   names prefaced by the passed in tableAlias string
      */
     public TupleDesc getTupleDesc() {
-        return Database.getCatalog().getTupleDesc(tableid);
+        return this.td;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedPages, which store
+ * variable length records.  Tables whose STRING columns hold short values
+ * fit many more tuples on a page than with the fixed length HeapPage
+ * format.  Files in this format are produced by
+ * {@link HeapFileEncoder#convertSlotted}.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructor.
+     *
+     * @param f The file that stores the on-disk backing store for this DbFile.
+     */
+    public SlottedHeapFile(File f) {
+        super(f);
+    }
+
+    /**
+     * @return the SlottedPage made of the given bytes read from the file.
+     */
+    protected Page newPage(HeapPageId pid, byte[] data) throws IOException {
+        if (ByteBuffer.wrap(data).getShort(2) == 0) {
+            // not on disk yet
+            data = SlottedPage.createEmptyPageData();
+        }
+        return new SlottedPage(pid, data);
+    }
+
+    /**
+     * Adds the specified tuple to the table under the specified TransactionId.
+     * The free space map marks the pages that can hold a tuple of the
+     * largest possible size.  The zone map is widened to cover the tuple.
+     *
+     * @return An ArrayList contain the pages that were modified
+     */
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> result = new ArrayList<Page>();
+        FreeSpaceMap fsm = freeSpaceMap();
+        ZoneMap zones = zoneMap();
+        int roomy = SlottedPage.maxRecordSize(t.getTupleDesc());
+        int i = fsm.nextFreePage(0, numPages());
+        while (i >= 0) {
+            SlottedPage page = (SlottedPage) Database.getBufferPool()
+                    .getPage(tid, new HeapPageId(id(), i), Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
+                page.addTuple(t);
+                fsm.setFree(i, page.getFreeSpace() >= roomy);
+                zones.add(i, t);
+                result.add(page);
+                return result;
+            }
+            fsm.setFree(i, false);
+            i = fsm.nextFreePage(i + 1, numPages());
+        }
+        SlottedPage page = (SlottedPage) newPageAtEnd(tid);
+        page.addTuple(t);
+        fsm.setFree(page.id().pageno(), page.getFreeSpace() >= roomy);
+        zones.setEmpty(page.id().pageno());
+        zones.add(page.id().pageno(), t);
+        result.add(page);
+        return result;
+    }
+
+    /**
+     * Adds a tuple to a page being filled by appendTuples.
+     *
+     * @return the tuple, or null if the page has no room for it.
+     */
+    protected Tuple addToNewPage(Page page, Tuple t) throws DbException {
+        SlottedPage sp = (SlottedPage) page;
+        if (!sp.hasRoomFor(t)) {
+            return null;
+        }
+        sp.addTuple(t);
+        return t;
+    }
+
+    /**
+     * Deletes the specified tuple from the table, under the specified
+     * TransactionId.
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        if (id() != t.getRecordID().pageid().tableid())
+            throw new DbException("not a member of the page");
+        SlottedPage page = (SlottedPage) Database.getBufferPool()
+                .getPage(tid, t.getRecordID().pageid(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        try {
+            freeSpaceMap().setFree(page.id().pageno(),
+                    page.getFreeSpace() >= SlottedPage.maxRecordSize(t.getTupleDesc()));
+        } catch (IOException e) {
+            throw new DbException("can't load the free space map: " + e.getMessage());
+        }
+        return page;
+    }
+
+    /**
+     * @return an iterator over the tuples of a page of this file.
+     */
+    protected Iterator<Tuple> pageIterator(Page page) {
+        return ((SlottedPage) page).iterator();
+    }
+
+    /**
+     * @return the number of bytes on a page; slotted pages have no separate
+     *         header.
+     */
+    public int bytesPerPage() {
+        return BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * @return an empty SlottedHeapFile stored in the given file.
+     */
+    protected HeapFile newVersion(File f) {
+        return new SlottedHeapFile(f);
+    }
+}
@@ -0,0 +1,346 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * SlottedPage stores pages of SlottedHeapFiles, where records are variable
+ * length: a STRING field takes one length byte plus its characters instead
+ * of a fixed Type.STRING_LEN + 4 bytes.  Characters take one byte each, in
+ * ISO-8859-1 as StringField writes them, whatever the platform's charset.
+ * <p/>
+ * A page is BufferPool.PAGE_SIZE bytes long and laid out as follows:
+ * <ul>
+ * <li>a 2 byte count of the entries in the slot directory, followed by the
+ * 2 byte offset where the record area starts;</li>
+ * <li>the slot directory, one 4 byte entry per slot holding the offset and
+ * length of its record (both 2 bytes), or zeroes for an empty slot;</li>
+ * <li>free space;</li>
+ * <li>the records, growing down from the end of the page.</li>
+ * </ul>
+ * INT fields take 4 bytes; STRING fields a length byte followed by the
+ * characters.  Slot numbers never change, so RecordIDs stay valid while the
+ * records are moved around; space freed by deletes is reclaimed whenever
+ * the page is written out.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedPage implements Page {
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    private volatile boolean dirty = false;
+    private TransactionId dirtier = null;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final byte[] data; // the page as read from disk
+    private int[] offsets; // record offset in data by slot, 0 if empty, -1 if only in tuples
+    private int[] lengths; // record length by slot
+    private Tuple[] tuples; // tuples handed out or added so far, by slot
+    private int numSlots; // entries in the slot directory
+    private int usedBytes; // bytes of the directory and live records
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above.
+     *
+     * @throws IOException if the data is not a valid slotted page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.tableid());
+        this.data = data;
+        if (data.length < BufferPool.PAGE_SIZE)
+            throw new EOFException("page is shorter than " + BufferPool.PAGE_SIZE + " bytes");
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        this.numSlots = in.getShort(0) & 0xffff;
+        if (HEADER_SIZE + this.numSlots * SLOT_SIZE > BufferPool.PAGE_SIZE)
+            throw new IOException("bad slot count " + this.numSlots);
+        this.offsets = new int[Math.max(this.numSlots, 8)];
+        this.lengths = new int[this.offsets.length];
+        this.tuples = new Tuple[this.offsets.length];
+        this.usedBytes = HEADER_SIZE + this.numSlots * SLOT_SIZE;
+        for (int i = 0; i < this.numSlots; i++) {
+            int offset = in.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+            int length = in.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+            if (offset != 0 && offset + length > BufferPool.PAGE_SIZE)
+                throw new IOException("slot " + i + " is out of the page");
+            this.offsets[i] = offset;
+            this.lengths[i] = offset == 0 ? 0 : length;
+            this.usedBytes += this.lengths[i];
+        }
+    }
+
+    /**
+     * @return a byte array corresponding to an empty SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer.wrap(data).putShort(2, (short) BufferPool.PAGE_SIZE);
+        return data;
+    }
+
+    /**
+     * @return the number of bytes a tuple takes up on a page.
+     */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getType(i) == Type.STRING_TYPE) {
+                size += 1 + Math.min(((StringField) t.getField(i)).getValue().length(),
+                        Type.STRING_LEN);
+            } else {
+                size += td.getType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the most bytes a tuple of the given schema, plus its slot
+     *         directory entry, can take up on a page.
+     */
+    public static int maxRecordSize(TupleDesc td) {
+        int size = SLOT_SIZE;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getType(i) == Type.STRING_TYPE ? 1 + Type.STRING_LEN : td.getType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        // not necessary for this project
+        return null;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId id() {
+        return pid;
+    }
+
+    /**
+     * @return the number of bytes still available for records and their slot
+     *         directory entries.
+     */
+    public int getFreeSpace() {
+        return BufferPool.PAGE_SIZE - this.usedBytes;
+    }
+
+    /**
+     * @return true if the specified tuple can be added to this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int needed = recordSize(t) + (firstEmptySlot() < this.numSlots ? 0 : SLOT_SIZE);
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean getSlot(int i) {
+        return i < this.numSlots && this.offsets[i] != 0;
+    }
+
+    private int firstEmptySlot() {
+        int i = 0;
+        while (i < this.numSlots && this.offsets[i] != 0) i++;
+        return i;
+    }
+
+    /**
+     * Returns the tuple in the given (used) slot, decoding it on first access.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = this.tuples[slotId];
+        if (t == null) {
+            t = new Tuple(this.td);
+            t.setRecordID(new RecordID(this.pid, slotId));
+            ByteBuffer in = ByteBuffer.wrap(this.data);
+            int pos = this.offsets[slotId];
+            for (int j = 0; j < this.td.numFields(); j++) {
+                if (this.td.getType(j) == Type.STRING_TYPE) {
+                    int len = this.data[pos] & 0xff;
+                    t.setField(j, new StringField(new String(this.data, pos + 1, len, StandardCharsets.ISO_8859_1),
+                            Type.STRING_LEN));
+                    pos += 1 + len;
+                } else {
+                    t.setField(j, new IntField(in.getInt(pos)));
+                    pos += Type.INT_TYPE.getLen();
+                }
+            }
+            this.tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Encodes the tuple into out at the specified offset.
+     *
+     * @return the number of bytes written
+     */
+    static int writeRecord(Tuple t, byte[] out, int offset) {
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        TupleDesc td = t.getTupleDesc();
+        int pos = offset;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(j)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                out[pos++] = (byte) len;
+                for (int k = 0; k < len; k++) {
+                    out[pos++] = (byte) s.charAt(k);
+                }
+            } else {
+                buf.putInt(pos, ((IntField) t.getField(j)).getValue());
+                pos += Type.INT_TYPE.getLen();
+            }
+        }
+        return pos - offset;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records packed at the end of the page.
+     * <p/>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the SlottedPage constructor and
+     * have it produce an equivalent SlottedPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     * @see #SlottedPage
+     */
+    public byte[] getPageData() {
+        byte[] out = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        int slots = this.numSlots;
+        while (slots > 0 && this.offsets[slots - 1] == 0) slots--;
+
+        int end = BufferPool.PAGE_SIZE;
+        for (int i = 0; i < slots; i++) {
+            if (this.offsets[i] == 0) continue;
+            end -= this.lengths[i];
+            if (this.offsets[i] > 0) {
+                System.arraycopy(this.data, this.offsets[i], out, end, this.lengths[i]);
+            } else {
+                writeRecord(this.tuples[i], out, end);
+            }
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) end);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) this.lengths[i]);
+        }
+        buf.putShort(0, (short) slots);
+        buf.putShort(2, (short) end);
+        return out;
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        if (!t.getRecordID().pageid().equals(this.pid))
+            throw new DbException("tuple is not on this page");
+        int slot = t.getRecordID().tupleno();
+        if (!getSlot(slot))
+            throw new DbException("tuple slot is already empty");
+        this.usedBytes -= this.lengths[slot];
+        this.offsets[slot] = 0;
+        this.lengths[slot] = 0;
+        this.tuples[slot] = null;
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there
+     * is one.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the page does not have room for the tuple or
+     *                     tupledesc is mismatch.
+     */
+    public void addTuple(Tuple t) throws DbException {
+        if (!this.td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc s mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("the page is full");
+        }
+        int slot = firstEmptySlot();
+        if (slot == this.numSlots) {
+            if (slot == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, slot * 2);
+                this.lengths = Arrays.copyOf(this.lengths, slot * 2);
+                this.tuples = Arrays.copyOf(this.tuples, slot * 2);
+            }
+            this.numSlots++;
+            this.usedBytes += SLOT_SIZE;
+        }
+        t.setRecordID(new RecordID(this.pid, slot));
+        this.offsets[slot] = -1;
+        this.lengths[slot] = recordSize(t);
+        this.tuples[slot] = t;
+        this.usedBytes += this.lengths[slot];
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) this.dirtier = tid;
+        this.dirty = dirty; // publishes dirtier
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page
+     *         (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return this.slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Tuple tuple = getTuple(this.slot);
+                this.slot = nextUsedSlot(this.slot + 1);
+                return tuple;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int nextUsedSlot(int i) {
+        while (i < this.numSlots && this.offsets[i] == 0) i++;
+        return i;
+    }
+}
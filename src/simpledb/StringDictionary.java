@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StringDictionary maps the distinct values of a STRING column to small
+ * integer codes, given out in the order the values are first seen.  Codes
+ * are never reused or reassigned, so a code stored on a page keeps its
+ * meaning for the life of the file.
+ * <p/>
+ * Looking up the field of a code does not lock, so scans can decode values
+ * while other threads add new ones.
+ *
+ * @see DictionaryHeapFile
+ * @see CodedStringField
+ */
+public class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    private volatile CodedStringField[] fields = new CodedStringField[16]; // by code
+    private int size;
+
+    /**
+     * @return the number of values in the dictionary.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the code of the given value, or -1 if it is not in the
+     *         dictionary.
+     */
+    public synchronized int code(String s) {
+        Integer code = this.codes.get(truncate(s));
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the code of the given value, adding it to the dictionary if
+     *         it is not there yet.
+     */
+    public synchronized int add(String s) {
+        s = truncate(s);
+        Integer code = this.codes.get(s);
+        if (code != null) {
+            return code;
+        }
+        CodedStringField[] a = this.fields;
+        if (this.size == a.length) {
+            a = Arrays.copyOf(a, a.length * 2);
+        }
+        a[this.size] = new CodedStringField(this, this.size, s);
+        this.codes.put(s, this.size);
+        this.fields = a; // publishes the new field to readers
+        return this.size++;
+    }
+
+    /**
+     * @return the field shared by all the occurrences of the value with the
+     *         given code.
+     * @throws NoSuchElementException if no value has that code
+     */
+    public CodedStringField field(int code) throws NoSuchElementException {
+        CodedStringField[] a = this.fields;
+        if (code < 0 || code >= a.length || a[code] == null) {
+            throw new NoSuchElementException("no value with code " + code);
+        }
+        return a[code];
+    }
+
+    private static String truncate(String s) {
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+}
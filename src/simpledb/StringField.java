@@ -38,7 +38,7 @@ public class StringField implements Field {
     }
 
     public boolean equals(Object field) {
-        return ((StringField) field).value.equals(value);
+        return field == this || ((StringField) field).value.equals(value);
     }
 
     /** Write this string to dos.  Always writes maxSize + 4 bytes to the
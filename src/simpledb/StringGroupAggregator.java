@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -7,11 +8,15 @@ import java.util.NoSuchElementException;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields and group by field.
+ * Groups of a dictionary encoded column are counted by code, in an array,
+ * and only turned into fields when the results are read.
  */
 public class StringGroupAggregator implements Aggregator {
     private final int gbfield;
     private final TupleDesc tupleDesc;
     private final Map<Field, Integer> aggcounts;
+    private StringDictionary dictionary; // of the coded group fields counted in codecounts
+    private int[] codecounts; // by code
 
     public StringGroupAggregator(int gbfield, Type gbfieldtype) {
         this.gbfield = gbfield;
@@ -24,6 +29,22 @@ public class StringGroupAggregator implements Aggregator {
     @Override
     public void merge(Tuple tup) {
         Field field = tup.getField(gbfield);
+        if (field instanceof CodedStringField) {
+            CodedStringField coded = (CodedStringField) field;
+            if (this.dictionary == null) {
+                this.dictionary = coded.getDictionary();
+                this.codecounts = new int[16];
+            }
+            if (coded.getDictionary() == this.dictionary) {
+                int code = coded.getCode();
+                if (code >= this.codecounts.length) {
+                    this.codecounts = Arrays.copyOf(this.codecounts,
+                            Math.max(code + 1, this.codecounts.length * 2));
+                }
+                this.codecounts[code]++;
+                return;
+            }
+        }
         Integer old = aggcounts.get(field);
         if (null == old) {
             this.aggcounts.put(field, 1);
@@ -52,6 +73,7 @@ public class StringGroupAggregator implements Aggregator {
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
+                foldCodes();
                 this.inner = aggcounts.keySet().iterator();
             }
 
@@ -72,6 +94,20 @@ public class StringGroupAggregator implements Aggregator {
         return this.tupleDesc;
     }
 
+    /**
+     * Moves the counts kept by code into the map of counts by field.
+     */
+    private void foldCodes() {
+        if (this.dictionary == null) return;
+        for (int code = 0; code < this.codecounts.length; code++) {
+            if (this.codecounts[code] == 0) continue;
+            Field field = this.dictionary.field(code);
+            Integer old = this.aggcounts.get(field);
+            this.aggcounts.put(field, (old == null ? 0 : old) + this.codecounts[code]);
+            this.codecounts[code] = 0;
+        }
+    }
+
     private int getAggvalue(Field field) {
         return this.aggcounts.get(field);
     }
@@ -7,14 +7,21 @@ public class Table {
   private final DbFile file; // the contents of the table
   private final TupleDesc t; // the format of tuples
   private final String name; // the name of the table -- may be an empty string
+  private final int pageSize; // bytes of tuples on a page of the table
 
   public Table(DbFile file, TupleDesc t, String name) {
+    this(file, t, name, BufferPool.PAGE_SIZE);
+  }
+
+  public Table(DbFile file, TupleDesc t, String name, int pageSize) {
     assert (file != null);
     assert (t != null);
     assert (name != null);
+    assert (pageSize > 0);
     this.file = file;
     this.t = t;
     this.name = name;
+    this.pageSize = pageSize;
   }
 
   public DbFile getFile() {
@@ -28,4 +35,8 @@ public class Table {
   public String getName() {
     return name;
   }
+
+  public int getPageSize() {
+    return pageSize;
+  }
 }
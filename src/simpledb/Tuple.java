@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
 /**
  * Tuple maintains information about the contents of a tuple.
  * Tuples have a specified schema specified by a TupleDesc object and contain
@@ -9,6 +12,9 @@ public class Tuple {
     private RecordID rid; // RecordID information for this tuple
     private final TupleDesc td; // specified schema
     private final Field[] fieldAr; // tuple fields
+    private volatile ByteBuffer data; // serialized fields, decoded on demand (may be null)
+    private final int offset; // offset of the first field in data
+    private final Object lock; // held while decoding from data (null if data is)
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -17,9 +23,40 @@ public class Tuple {
      *           instance with at least one field.
      */
     public Tuple(TupleDesc td) {
+        this(td, null, 0, null);
+    }
+
+    /**
+     * Create a tuple whose fields are serialized in data, starting at the
+     * given offset, and laid out as described by td.  A field is only
+     * decoded the first time it is read with getField.
+     *
+     * @param td     the schema of this tuple.
+     * @param data   the buffer holding the serialized tuple; it is read with
+     *               absolute gets only and must not change afterwards,
+     *               unless the tuple is first rebound to a copy.
+     * @param offset the offset of the tuple in data.
+     * @param lock   the lock held by whoever rebinds the tuple, which fields
+     *               are decoded under, so that data can't be rebound and
+     *               reused while a field is read from it.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int offset, Object lock) {
         assert (td != null);
         this.td = td;
         this.fieldAr = new Field[td.numFields()];
+        this.data = data;
+        this.offset = offset;
+        this.lock = lock;
+    }
+
+    /**
+     * Makes a tuple that decodes its fields from one buffer decode them from
+     * a copy of it instead.  Must be called with the tuple's lock held.
+     *
+     * @see HeapPage#moveTo
+     */
+    void rebind(ByteBuffer from, ByteBuffer to) {
+        if (this.data == from) this.data = to;
     }
 
     /**
@@ -61,7 +98,19 @@ public class Tuple {
      * @return the value of the ith field, or null if it has not been set.
      */
     public Field getField(int i) {
-        return this.fieldAr[i];
+        Field f = this.fieldAr[i];
+        if (f == null && this.data != null) {
+            synchronized (this.lock) {
+                try {
+                    f = this.td.getType(i).parse(this.data, this.offset + this.td.getFieldOffset(i));
+                } catch (java.text.ParseException e) {
+                    e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
+                }
+            }
+            this.fieldAr[i] = f;
+        }
+        return f;
     }
 
     /**
@@ -76,11 +125,11 @@ public class Tuple {
     public String toString() {
         StringBuilder toString = new StringBuilder();
         boolean isFirst = true;
-        for (Field field : this.fieldAr) {
+        for (int i = 0; i < this.fieldAr.length; i++) {
             if (!isFirst) {
                 toString.append("\t");
             }
-            toString.append(field);
+            toString.append(getField(i));
             isFirst = false;
         }
         return toString + "\n";
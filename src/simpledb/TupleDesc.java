@@ -10,6 +10,7 @@ public class TupleDesc {
     private final String[] fieldAr; // array specifying the names of the fields
     private final int numFields; // the number of fields
     private final int size; // The size (in bytes) of tuples
+    private final int[] offsetAr; // offset (in bytes) of each field within a tuple
     private final String description; // a String describing this descriptor
 
     /**
@@ -37,6 +38,24 @@ public class TupleDesc {
         return new TupleDesc(typeAr, fieldAr);
     }
 
+    /**
+     * Build a TupleDesc made of some of the fields of another one.
+     *
+     * @param td     The TupleDesc to take the fields from
+     * @param fields The indexes in td of the fields to keep, in order
+     * @return the new TupleDesc
+     * @throws NoSuchElementException if an index is not a valid field reference.
+     */
+    public static TupleDesc project(TupleDesc td, int[] fields) throws NoSuchElementException {
+        Type[] typeAr = new Type[fields.length];
+        String[] fieldAr = td.fieldAr == null ? null : new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            typeAr[i] = td.getType(fields[i]);
+            if (fieldAr != null) fieldAr[i] = td.fieldAr[fields[i]];
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
     /**
      * Constructor.
      * Create a new tuple desc with typeAr.length fields with fields of the
@@ -55,10 +74,12 @@ public class TupleDesc {
         this.typeAr = typeAr;
         this.fieldAr = fieldAr;
         this.numFields = typeAr.length;
+        this.offsetAr = new int[typeAr.length];
         int size = 0;
         int index = 0;
         StringBuilder description = new StringBuilder();
         for (Type type : typeAr) {
+            this.offsetAr[index] = size;
             size += type.getLen();
             description.append(type)
                     .append("[")
@@ -158,6 +179,20 @@ public class TupleDesc {
         return this.size;
     }
 
+    /**
+     * @param i The index of the field. It must be a valid index.
+     * @return the offset (in bytes) of the ith field within the serialized
+     *         form of a tuple.
+     * @throws NoSuchElementException if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        try {
+            return this.offsetAr[i];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new NoSuchElementException();
+        }
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality.
      * Two TupleDescs are considered equal if they are the same size and if the
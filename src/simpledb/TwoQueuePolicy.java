@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQueuePolicy is the scan resistant 2Q algorithm of Johnson and
+ * Shasha.  A page enters the pool on a small probationary FIFO queue, and
+ * leaves it without further ado unless it is fetched again after it was
+ * evicted: the ids of the last pages evicted from the FIFO are remembered
+ * on a ghost queue, and a page found there when it is read again goes to
+ * the main queue, which is LRU.  Fetching a page again while it is still on
+ * the FIFO does not count, since scans and read ahead fetch their pages
+ * several times in quick succession.
+ * <p/>
+ * A scan thus only cycles through the FIFO, and the pages that are used
+ * over and over again, such as those of small dimension tables or of the
+ * upper levels of an index, stay on the main queue.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+    private final int maxProbation; // pages kept on the FIFO when the main queue has some
+    private final int maxGhosts;
+    private final LinkedHashSet<PageId> probation = new LinkedHashSet<PageId>(); // oldest first
+    private final LinkedHashSet<PageId> ghosts = new LinkedHashSet<PageId>(); // oldest first
+    private final LinkedHashMap<PageId, Boolean> main =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true); // least recently used first
+    private PageId lastVictim; // the page evict chose last
+    private boolean lastFromMain; // whether it was on the main queue
+
+    /**
+     * Constructor.
+     * Sizes the queues for a pool of the given number of pages, with the
+     * proportions recommended by the authors: a quarter of the pool for
+     * the FIFO, and half as many ghosts as the pool has pages.
+     *
+     * @param numPages the number of pages in the pool
+     */
+    public TwoQueuePolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxProbation the number of pages the FIFO keeps before it is
+     *                     evicted from ahead of the main queue
+     * @param maxGhosts    the number of evicted pages remembered
+     */
+    public TwoQueuePolicy(int maxProbation, int maxGhosts) {
+        this.maxProbation = maxProbation;
+        this.maxGhosts = maxGhosts;
+    }
+
+    public void added(PageId pid) {
+        if (this.ghosts.remove(pid)) {
+            this.main.put(pid, Boolean.TRUE);
+        } else {
+            this.probation.add(pid);
+        }
+    }
+
+    public void accessed(PageId pid) {
+        this.main.get(pid);
+    }
+
+    public void rejected(PageId pid) {
+        if (pid.equals(this.lastVictim) && this.lastFromMain) {
+            this.main.put(pid, Boolean.TRUE);
+        } else {
+            this.ghosts.remove(pid);
+            this.probation.add(pid);
+        }
+        this.lastVictim = null;
+    }
+
+    public void removed(PageId pid) {
+        if (!this.probation.remove(pid)) {
+            this.main.remove(pid);
+        }
+    }
+
+    public PageId evict(Set<PageId> pinned) {
+        boolean probationFirst = this.probation.size() > this.maxProbation || this.main.isEmpty();
+        PageId victim = probationFirst ? evictFrom(this.probation.iterator(), true, pinned) : null;
+        if (victim == null) {
+            victim = evictFrom(this.main.keySet().iterator(), false, pinned);
+        }
+        if (victim == null && !probationFirst) {
+            victim = evictFrom(this.probation.iterator(), true, pinned);
+        }
+        this.lastVictim = victim;
+        return victim;
+    }
+
+    /**
+     * Removes the first page of a queue that is not pinned.
+     *
+     * @param ghost whether to remember the page on the ghost queue
+     * @return the page removed, or null if all are pinned.
+     */
+    private PageId evictFrom(Iterator<PageId> queue, boolean ghost, Set<PageId> pinned) {
+        while (queue.hasNext()) {
+            PageId pid = queue.next();
+            if (pinned.contains(pid)) continue;
+            queue.remove();
+            this.lastFromMain = !ghost;
+            if (ghost) {
+                this.ghosts.add(pid);
+                if (this.ghosts.size() > this.maxGhosts) {
+                    Iterator<PageId> oldest = this.ghosts.iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+            }
+            return pid;
+        }
+        return null;
+    }
+}
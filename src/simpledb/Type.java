@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -57,6 +58,52 @@ public class Type {
     }
   }
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer, which is
+   *   advanced past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the buffer does not hold a field of the
+   *   appropriate type.
+   */
+  public Field parse(ByteBuffer buf) throws ParseException {
+    if (buf.remaining() < getLen())
+      throw new ParseException("couldn't parse", 0);
+    Field f = parse(buf, buf.position());
+    buf.position(buf.position() + getLen());
+    return f;
+  }
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified offset of the buffer.  The buffer's position
+   *   is not used or changed, so a buffer can be shared between threads.
+   * @param buf The buffer to read from
+   * @param offset The offset of the field in the buffer
+   * @throws ParseException if the buffer does not hold a field of the
+   *   appropriate type at that offset.
+   */
+  public Field parse(ByteBuffer buf, int offset) throws ParseException {
+    try {
+      switch (typeId) {
+        case INT_ID:
+          return new IntField(buf.getInt(offset));
+      case STRING_ID:
+      int strLen = buf.getInt(offset);
+      if (strLen < 0 || strLen > STRING_LEN)
+          throw new ParseException("bad string length " + strLen, offset);
+      byte bs[] = new byte[strLen];
+      for (int i = 0; i < strLen; i++)
+          bs[i] = buf.get(offset + 4 + i);
+      return new StringField(new String(bs), STRING_LEN);
+        default:
+          return null;
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new ParseException("couldn't parse", offset);
+    }
+  }
+
   /**
    * @return true if the specified type is the same as the type of this object
    */
@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ZoneMap keeps, for each page of a HeapFile and each column, the smallest
+ * and largest value on the page, so that a scan with a selective predicate
+ * can skip pages without fetching them (see
+ * {@link HeapFile#iterator(TransactionId, List)}).  Values are kept as
+ * longs: INT values as they are, and STRING values as their first eight
+ * characters, so that for strings the bounds are only prefixes and a page
+ * whose prefix matches is always read.
+ * <p/>
+ * A page is in one of three states: known to be empty, described by its
+ * bounds, or unknown, for pages the map has not seen, which are always
+ * read.  Deletes leave the bounds alone, so they can only become wider than
+ * the values on the page, never narrower.
+ * <p/>
+ * The map is persisted in a sidecar file holding the number of columns,
+ * the length of the data file when the map was written, the number of
+ * pages and then the bounds of each page.  A sidecar written for a data
+ * file of another length is out of date and ignored.
+ *
+ * @see HeapFileEncoder
+ */
+public class ZoneMap {
+    private static final long UNKNOWN_MIN = Long.MIN_VALUE;
+    private static final long UNKNOWN_MAX = Long.MAX_VALUE;
+    private static final int PREFIX_LEN = 8;
+
+    private final File file;
+    private final int numColumns;
+    private long[] bounds; // min then max of each column, for each page
+    private int numPages; // number of pages described by the map
+    private boolean dirty;
+
+    /**
+     * Constructor.
+     * Loads the map from the specified sidecar file if it exists and was
+     * written for a data file of the given length.
+     *
+     * @param file       the sidecar file the map is kept in, or null for a
+     *                   map that is never flushed
+     * @param numColumns the number of columns of the table
+     * @param dataLength the current length of the data file
+     * @throws IOException if the sidecar exists but can't be read.
+     */
+    public ZoneMap(File file, int numColumns, long dataLength) throws IOException {
+        this.file = file;
+        this.numColumns = numColumns;
+        this.bounds = new long[16 * 2 * numColumns];
+        if (file == null || !file.exists()) return;
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != numColumns || in.readLong() != dataLength) return;
+            int pages = in.readInt();
+            ensure(pages);
+            for (int i = 0; i < pages * 2 * numColumns; i++) {
+                this.bounds[i] = in.readLong();
+            }
+            this.numPages = pages;
+        } catch (EOFException e) {
+            // truncated sidecar: start over
+            this.numPages = 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void ensure(int pages) {
+        if (pages * 2 * this.numColumns > this.bounds.length) {
+            this.bounds = Arrays.copyOf(this.bounds,
+                    Math.max(pages, this.bounds.length / this.numColumns) * 2 * this.numColumns);
+        }
+    }
+
+    /**
+     * @return the number of pages described by the map.
+     */
+    public synchronized int numPages() {
+        return this.numPages;
+    }
+
+    /**
+     * Extends the map up to pageno, marking the new pages as unknown.
+     */
+    private void extend(int pageno) {
+        if (pageno < this.numPages) return;
+        ensure(pageno + 1);
+        for (int i = this.numPages * 2 * this.numColumns; i < (pageno + 1) * 2 * this.numColumns; i += 2) {
+            this.bounds[i] = UNKNOWN_MIN;
+            this.bounds[i + 1] = UNKNOWN_MAX;
+        }
+        this.numPages = pageno + 1;
+    }
+
+    /**
+     * Records that the specified page is a new page, with no tuples yet.
+     */
+    public synchronized void setEmpty(int pageno) {
+        extend(pageno);
+        for (int c = 0; c < this.numColumns; c++) {
+            int i = (pageno * this.numColumns + c) * 2;
+            this.bounds[i] = Long.MAX_VALUE;
+            this.bounds[i + 1] = Long.MIN_VALUE;
+        }
+        this.dirty = true;
+    }
+
+    /**
+     * Widens the bounds of the specified page to include the tuple.
+     */
+    public synchronized void add(int pageno, Tuple t) {
+        for (int c = 0; c < this.numColumns; c++) {
+            add(pageno, c, key(t.getField(c)));
+        }
+    }
+
+    /**
+     * Widens the bounds of a column of the specified page to include the
+     * given key.
+     */
+    synchronized void add(int pageno, int column, long key) {
+        extend(pageno);
+        int i = (pageno * this.numColumns + column) * 2;
+        if (key < this.bounds[i]) this.bounds[i] = key;
+        if (key > this.bounds[i + 1]) this.bounds[i + 1] = key;
+        this.dirty = true;
+    }
+
+    /**
+     * Adds the pages of another map after the pages of this one.
+     */
+    public synchronized void append(ZoneMap other) {
+        int n = other.numPages();
+        ensure(this.numPages + n);
+        System.arraycopy(other.bounds, 0, this.bounds, this.numPages * 2 * this.numColumns,
+                n * 2 * this.numColumns);
+        this.numPages += n;
+        this.dirty = true;
+    }
+
+    /**
+     * @return false if no tuple on the specified page can satisfy all of the
+     *         predicates, true if some may.
+     */
+    public synchronized boolean mayMatch(int pageno, List<Predicate> predicates) {
+        if (pageno >= this.numPages) return true;
+        for (Predicate p : predicates) {
+            int i = (pageno * this.numColumns + p.getField()) * 2;
+            long min = this.bounds[i];
+            long max = this.bounds[i + 1];
+            if (min > max) return false; // no tuples on the page
+            long key = key(p.getOperand());
+            // string keys are prefixes, so only non-strict comparisons are safe
+            boolean exact = p.getOperand() instanceof IntField;
+            boolean match;
+            switch (p.getOp()) {
+            case EQUALS:
+                match = min <= key && key <= max;
+                break;
+            case LESS_THAN:
+                match = exact ? min < key : min <= key;
+                break;
+            case LESS_THAN_OR_EQ:
+                match = min <= key;
+                break;
+            case GREATER_THAN:
+                match = exact ? max > key : max >= key;
+                break;
+            case GREATER_THAN_OR_EQ:
+                match = max >= key;
+                break;
+            default:
+                match = true;
+            }
+            if (!match) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the key of a field: the value of an INT field, or the first
+     *         characters of a STRING field packed so that keys compare like
+     *         the strings do.
+     */
+    public static long key(Field f) {
+        if (f instanceof IntField) return ((IntField) f).getValue();
+        String s = ((StringField) f).getValue();
+        long key = 0;
+        for (int i = 0; i < PREFIX_LEN; i++) {
+            key = key << 8 | (i < s.length() ? Math.min(s.charAt(i), 0xff) : 0);
+        }
+        return key ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the key of a STRING field given by its bytes.
+     */
+    static long key(byte[] s, int off, int len) {
+        long key = 0;
+        for (int i = 0; i < PREFIX_LEN; i++) {
+            int b = i < len ? s[off + i] & 0xff : 0;
+            if (b >= 0x80) {
+                // not ASCII: go by the characters the bytes decode to
+                return key(new StringField(new String(s, off, len), Type.STRING_LEN));
+            }
+            key = key << 8 | b;
+        }
+        return key ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed since it was loaded
+     * or last flushed.
+     *
+     * @param dataLength the current length of the data file
+     */
+    public synchronized void flush(long dataLength) throws IOException {
+        if (!this.dirty || this.file == null) return;
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(this.file)));
+        try {
+            out.writeInt(this.numColumns);
+            out.writeLong(dataLength);
+            out.writeInt(this.numPages);
+            for (int i = 0; i < this.numPages * 2 * this.numColumns; i++) {
+                out.writeLong(this.bounds[i]);
+            }
+        } finally {
+            out.close();
+        }
+        this.dirty = false;
+    }
+}
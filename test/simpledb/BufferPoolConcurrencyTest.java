@@ -0,0 +1,200 @@
+package simpledb;
+
+import simpledb.TestUtil.CountingHeapFile;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolConcurrencyTest {
+    private static final int THREADS = 8;
+
+    /**
+     * Counts the reads of each page, and if told to, also holds each read
+     * until THREADS reads are going on at once.
+     */
+    private static class LatchedHeapFile extends CountingHeapFile {
+        volatile CountDownLatch together;
+
+        LatchedHeapFile(File f) {
+            super(f);
+        }
+
+        public Page readPage(PageId pid) {
+            CountDownLatch latch = together;
+            if (latch != null) {
+                latch.countDown();
+                try {
+                    if (!latch.await(10, TimeUnit.SECONDS)) {
+                        throw new RuntimeException("reads of different pages were serialized");
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Runs the task on THREADS threads at once, and rethrows the first
+     * exception thrown by any of them.
+     */
+    private void runAll(final Callable<Void> task) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(threads.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        return task.call();
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    /**
+     * Threads missing the same pages at once read each of them once.
+     */
+    @Test public void sharedMisses() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(50);
+        final CountingHeapFile table = TestUtil.createTable(1, 20, null);
+        runAll(new Callable<Void>() {
+            public Void call() throws Exception {
+                for (int round = 0; round < 10; round++) {
+                    for (int i = 0; i < 20; i++) {
+                        HeapPageId pid = new HeapPageId(table.id(), i);
+                        assertEquals(pid, pool.getPage(null, pid, Permissions.READ_ONLY).id());
+                    }
+                }
+                return null;
+            }
+        });
+        assertEquals(20, table.pagesRead());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(1, table.reads(i));
+        }
+    }
+
+    /**
+     * Threads missing different pages read them at the same time, while
+     * the threads missing one of them wait for its read.
+     */
+    @Test public void parallelMisses() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(50);
+        final LatchedHeapFile table = new LatchedHeapFile(TestUtil.createTableFile(1, THREADS, null));
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(1));
+        table.together = new CountDownLatch(THREADS);
+        final AtomicInteger next = new AtomicInteger();
+        runAll(new Callable<Void>() {
+            public Void call() throws Exception {
+                HeapPageId mine = new HeapPageId(table.id(), next.getAndIncrement());
+                assertEquals(mine, pool.getPage(null, mine, Permissions.READ_ONLY).id());
+                for (int i = 0; i < THREADS; i++) {
+                    HeapPageId pid = new HeapPageId(table.id(), i);
+                    assertEquals(pid, pool.getPage(null, pid, Permissions.READ_ONLY).id());
+                }
+                return null;
+            }
+        });
+        assertEquals(THREADS, table.pagesRead());
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals(1, table.reads(i));
+        }
+    }
+
+    /**
+     * Threads fetching random pages of a table larger than the pool always
+     * get the page they asked for.
+     */
+    @Test public void evictions() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(16, 0, new TwoQueuePolicy(16));
+        final CountingHeapFile table = TestUtil.createTable(1, 40, null);
+        runAll(new Callable<Void>() {
+            public Void call() throws Exception {
+                Random random = new Random();
+                for (int i = 0; i < 2000; i++) {
+                    HeapPageId pid = new HeapPageId(table.id(), random.nextInt(40));
+                    assertEquals(pid, pool.getPage(null, pid, Permissions.READ_ONLY).id());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Tuples decode the right fields while the frames of their pages are
+     * given to other pages by evictions in other threads.  Row i of the
+     * table is (i, i), so each field shows where its bytes came from.
+     */
+    @Test public void decodingDuringEvictions() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(THREADS + 4, 0, new LruPolicy());
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 40000; i++) {
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.PAGE_SIZE, 2);
+        final HeapFile table = Utility.openHeapFile(2, f);
+        final int numPages = table.numPages();
+        int perPage = 0;
+        Iterator<Tuple> first = ((HeapPage) table.readPage(new HeapPageId(table.id(), 0))).iterator();
+        while (first.hasNext()) {
+            first.next();
+            perPage++;
+        }
+        final int rowsPerPage = perPage;
+
+        runAll(new Callable<Void>() {
+            public Void call() throws Exception {
+                Random random = new Random();
+                for (int i = 0; i < 3000; i++) {
+                    HeapPageId pid = new HeapPageId(table.id(), random.nextInt(numPages));
+                    Iterator<Tuple> it = ((HeapPage) pool.getPage(null, pid, Permissions.READ_ONLY)).iterator();
+                    List<Tuple> tuples = new ArrayList<Tuple>();
+                    for (int j = 0; j < 16 && it.hasNext(); j++) {
+                        tuples.add(it.next());
+                    }
+                    for (Tuple t : tuples) {
+                        int expected = pid.pageno() * rowsPerPage + t.getRecordID().tupleno();
+                        assertEquals(new IntField(expected), t.getField(0));
+                        assertEquals(new IntField(expected), t.getField(1));
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
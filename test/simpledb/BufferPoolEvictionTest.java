@@ -0,0 +1,288 @@
+package simpledb;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolEvictionTest {
+    private final TransactionId tid = new TransactionId();
+    private final PageId a = new HeapPageId(1, 0);
+    private final PageId b = new HeapPageId(1, 1);
+    private final PageId c = new HeapPageId(1, 2);
+    private final Set<PageId> none = Collections.emptySet();
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * CLOCK gives pages that were used since the hand last passed them a
+     * second chance.
+     */
+    @Test public void clock() {
+        ReplacementPolicy policy = new ClockPolicy();
+        policy.added(a);
+        policy.added(b);
+        policy.added(c);
+        assertEquals(a, policy.evict(none));
+        policy.accessed(b);
+        assertEquals(c, policy.evict(none));
+        policy.added(a);
+        assertEquals(b, policy.evict(none));
+        assertEquals(a, policy.evict(none));
+        assertNull(policy.evict(none));
+    }
+
+    /**
+     * LRU evicts the pages in order of last use.
+     */
+    @Test public void lru() {
+        ReplacementPolicy policy = new LruPolicy();
+        policy.added(a);
+        policy.added(b);
+        policy.added(c);
+        policy.accessed(a);
+        assertEquals(b, policy.evict(none));
+        policy.removed(c);
+        assertEquals(a, policy.evict(none));
+        assertNull(policy.evict(none));
+    }
+
+    /**
+     * Pinned pages are passed over, and nothing is evicted when all are.
+     */
+    @Test public void pinned() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[]{ new ClockPolicy(), new LruPolicy(),
+                new TwoQueuePolicy(1, 1) }) {
+            policy.added(a);
+            policy.added(b);
+            assertEquals(b, policy.evict(Collections.singleton(a)));
+            assertNull(policy.evict(Collections.singleton(a)));
+            assertEquals(a, policy.evict(none));
+        }
+    }
+
+    /**
+     * 2Q only keeps a page past its first stay in the FIFO if it is fetched
+     * again after it was evicted, and then prefers it to the FIFO.
+     */
+    @Test public void twoQueue() {
+        PageId d = new HeapPageId(1, 3);
+        ReplacementPolicy policy = new TwoQueuePolicy(1, 2);
+        policy.added(a);
+        policy.added(b);
+        policy.accessed(a);
+        assertEquals(a, policy.evict(none));
+        policy.added(a); // a ghost: goes to the main queue
+        policy.added(c);
+        policy.added(d);
+        assertEquals(b, policy.evict(none));
+        assertEquals(c, policy.evict(none));
+        // one page left on the FIFO: the main queue goes first
+        assertEquals(a, policy.evict(none));
+        assertEquals(d, policy.evict(none));
+        assertNull(policy.evict(none));
+    }
+
+    /**
+     * A victim 2Q takes back goes back to the queue it came from, without
+     * counting as a page fetched again after it was evicted.
+     */
+    @Test public void twoQueueRejected() {
+        ReplacementPolicy policy = new TwoQueuePolicy(1, 2);
+        policy.added(a);
+        policy.added(b);
+        assertEquals(a, policy.evict(none));
+        policy.rejected(a); // back on the FIFO, behind b
+        assertEquals(b, policy.evict(none));
+        policy.added(b); // a ghost: goes to the main queue
+        assertEquals(b, policy.evict(none));
+        policy.rejected(b); // back on the main queue
+        policy.added(c);
+        assertEquals(a, policy.evict(none));
+        assertEquals(b, policy.evict(none));
+        assertEquals(c, policy.evict(none));
+        assertNull(policy.evict(none));
+    }
+
+    /**
+     * Pages that are used again and again stay in a pool managed by 2Q
+     * through a scan of a table larger than the pool, and not with LRU.
+     */
+    @Test public void scanResistance() throws Exception {
+        assertEquals(3, rereadsAfterScan(new LruPolicy()));
+        assertEquals(0, rereadsAfterScan(new TwoQueuePolicy(8)));
+    }
+
+    /**
+     * @return the number of pages of a working set of three that are read
+     *         again after a scan, in a pool of eight pages.
+     */
+    private int rereadsAfterScan(ReplacementPolicy policy) throws Exception {
+        BufferPool pool = Database.resetBufferPool(8, 0, policy);
+        CountingHeapFile table = TestUtil.createTable(1, 40, null);
+
+        int[] hot = { 0, 1, 2 };
+        for (int pageno : hot) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        for (int pageno = 3; pageno < 11; pageno++) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        // fetched again after they were evicted
+        for (int pageno : hot) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        // the scan
+        for (int pageno = 11; pageno < 40; pageno++) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        int before = table.reads();
+        for (int pageno : hot) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        return table.reads() - before;
+    }
+
+    /**
+     * Pages that are used again and again stay in a pool managed by 2Q
+     * through a scan that changes every page it reads, while read ahead
+     * leaves the dirty pages it can't evict to the background writer.
+     */
+    @Test public void dirtyScanResistance() throws Exception {
+        BufferPool pool = Database.resetBufferPool(8, 2, new TwoQueuePolicy(8), 1);
+        CountingHeapFile table = TestUtil.createTable(1, 50, null);
+
+        // out of order, so that nothing is read ahead
+        int[] hot = { 0, 5, 10 };
+        for (int pageno : hot) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        for (int pageno : new int[]{ 48, 46, 44, 42, 40, 49, 47, 45 }) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        // fetched again after they were evicted
+        for (int pageno : hot) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        // the scan
+        for (int pageno = 11; pageno < 40; pageno++) {
+            Page page = pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+        }
+        int before = table.reads();
+        for (int pageno : hot) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        assertEquals(0, table.reads() - before);
+    }
+
+    /**
+     * A table larger than the pool can be scanned with either policy.
+     */
+    @Test public void scan() throws Exception {
+        for (ReplacementPolicy policy : new ReplacementPolicy[]{ new ClockPolicy(), new LruPolicy(),
+                new TwoQueuePolicy(5) }) {
+            Database.resetBufferPool(5, 0, policy);
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile table = SystemTestUtil.createRandomHeapFile(1, 1024 * 30, 1000, null, tuples);
+            SystemTestUtil.matchTuples(table, tuples);
+        }
+    }
+
+    /**
+     * A dirty page is written back to its file when it is evicted.
+     */
+    @Test public void writeBack() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2, 0, new LruPolicy());
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        HeapPageId pid = new HeapPageId(table.id(), 0);
+
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        assertEquals(0, ((HeapPage) table.readPage(pid)).getNumEmptySlots());
+
+        pool.getPage(tid, new HeapPageId(table.id(), 1), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(table.id(), 2), Permissions.READ_ONLY);
+        assertEquals(1, ((HeapPage) table.readPage(pid)).getNumEmptySlots());
+        HeapPage reread = (HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+        assertNotSame(page, reread);
+        assertEquals(1, reread.getNumEmptySlots());
+        assertNull(reread.isDirty());
+    }
+
+    /**
+     * An iterator keeps the page it is on pinned, until it moves past it or
+     * is closed, or else until its transaction completes.
+     */
+    @Test public void iteratorPins() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2, 0, new LruPolicy());
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1200, 1000, null, null);
+        CountingHeapFile table = new CountingHeapFile(f);
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(2));
+        HeapPageId pid0 = new HeapPageId(table.id(), 0);
+
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        it.next();
+        pool.getPage(tid, new HeapPageId(table.id(), 1), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(table.id(), 2), Permissions.READ_ONLY);
+        int reads = table.reads();
+        pool.getPage(tid, pid0, Permissions.READ_ONLY);
+        assertEquals(reads, table.reads());
+        it.close();
+
+        pool = Database.resetBufferPool(1, 0, new LruPolicy());
+        it = table.iterator(tid);
+        it.open();
+        try {
+            pool.getPage(tid, new HeapPageId(table.id(), 1), Permissions.READ_ONLY);
+            fail("the only page of the pool is pinned");
+        } catch (DbException e) {
+            // expected
+        }
+        pool.transactionComplete(tid);
+        pool.getPage(tid, new HeapPageId(table.id(), 1), Permissions.READ_ONLY);
+        it.close();
+    }
+
+    /**
+     * HeapPages are kept outside of the Java heap while they are in the
+     * pool, and are moved back to it when they are evicted, so that their
+     * tuples still read right once the frame holds another page.
+     */
+    @Test public void frames() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2, 0, new LruPolicy());
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1200, null, tuples);
+
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(table.id(), 0), Permissions.READ_ONLY);
+        assertTrue(page.isOffHeap());
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        pool.getPage(tid, new HeapPageId(table.id(), 1), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(table.id(), 2), Permissions.READ_ONLY);
+        assertFalse(page.isOffHeap());
+
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(first));
+        for (int i = 1; it.hasNext(); i++) {
+            assertEquals(tuples.get(i), SystemTestUtil.tupleToList(it.next()));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolEvictionTest.class);
+    }
+}
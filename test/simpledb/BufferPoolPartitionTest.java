@@ -0,0 +1,141 @@
+package simpledb;
+
+import simpledb.TestUtil.CountingHeapFile;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPartitionTest {
+    private final TransactionId tid = new TransactionId();
+
+    /** Changes pages that are not in the pool, one after the other. */
+    private static class DetachedHeapFile extends HeapFile {
+        int next;
+
+        DetachedHeapFile(File f) {
+            super(f);
+        }
+
+        public ArrayList<Page> addTuple(TransactionId tid, Tuple t) {
+            ArrayList<Page> pages = new ArrayList<Page>();
+            pages.add(readPage(new HeapPageId(id(), this.next++)));
+            return pages;
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void fetch(BufferPool pool, HeapFile table, int from, int to) throws Exception {
+        for (int pageno = from; pageno < to; pageno++) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * A scan of a table larger than the pool does not evict the pages of a
+     * table in a partition of its own, and only takes up the rest of the
+     * pool.
+     */
+    @Test public void isolation() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10, 0, new LruPolicy());
+        CountingHeapFile dimension = TestUtil.createTable(1, 3, null);
+        CountingHeapFile fact = TestUtil.createTable(1, 30, null);
+        pool.createPartition("dimensions", 3, new LruPolicy());
+        pool.assignTable(dimension.id(), "dimensions");
+
+        fetch(pool, dimension, 0, 3);
+        fetch(pool, fact, 0, 30);
+        fetch(pool, dimension, 0, 3);
+        assertEquals(3, dimension.reads());
+        Map<Integer, Integer> residency = pool.stats().residency();
+        assertEquals(Integer.valueOf(3), residency.get(dimension.id()));
+        assertEquals(Integer.valueOf(7), residency.get(fact.id()));
+    }
+
+    /**
+     * The pages of a table that are in the pool move to the partition it is
+     * assigned to, which evicts what does not fit, and move back with it.
+     */
+    @Test public void assignCachedTable() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10, 0, new LruPolicy(), 1);
+        CountingHeapFile table = TestUtil.createTable(1, 5, null);
+        fetch(pool, table, 0, 5);
+        pool.createPartition("small", 2, new LruPolicy());
+        pool.assignTable(table.id(), "small");
+        assertEquals("small", pool.partitionOf(table.id()));
+        assertEquals(Integer.valueOf(2), pool.stats().residency().get(table.id()));
+        assertEquals(3, pool.stats().evictions());
+
+        // the last pages used stay
+        int reads = table.reads();
+        fetch(pool, table, 3, 5);
+        assertEquals(reads, table.reads());
+
+        pool.assignTable(table.id(), BufferPool.DEFAULT_PARTITION);
+        assertEquals(BufferPool.DEFAULT_PARTITION, pool.partitionOf(table.id()));
+        fetch(pool, table, 0, 5);
+        assertEquals(Integer.valueOf(5), pool.stats().residency().get(table.id()));
+    }
+
+    /**
+     * Pages that were changed out of the pool come back to it through their
+     * partition, evicting other pages when it is full.
+     */
+    @Test public void insertIntoFullPartition() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10, 0, new LruPolicy());
+        DetachedHeapFile table = new DetachedHeapFile(TestUtil.createTableFile(1, 5, null));
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(1));
+        pool.createPartition("small", 2, new LruPolicy());
+        pool.assignTable(table.id(), "small");
+
+        for (int i = 0; i < 5; i++) {
+            pool.insertTuple(tid, table.id(), Utility.getHeapTuple(i, 1));
+        }
+        assertEquals(Integer.valueOf(2), pool.stats().residency().get(table.id()));
+        assertEquals(3, pool.stats().evictions());
+    }
+
+    /**
+     * Partitions are only made out of pages the default partition can
+     * spare, and tables only go to partitions that exist.
+     */
+    @Test public void errors() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        HeapFile table = TestUtil.createTable(1, 1, null);
+        pool.createPartition("a", 5, new LruPolicy());
+        try {
+            pool.createPartition("a", 1, new LruPolicy());
+            fail("partition a exists");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            pool.createPartition("b", 5, new LruPolicy());
+            fail("the default partition has 5 pages left");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            pool.assignTable(table.id(), "c");
+            fail("there is no partition c");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertEquals(BufferPool.DEFAULT_PARTITION, pool.partitionOf(table.id()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb;
+
+import simpledb.TestUtil.RecordingHeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolReadAheadTest {
+    private final TransactionId tid = new TransactionId();
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * A scan reads every page once, some of them ahead of time, and never
+     * past the end of the file.
+     */
+    @Test public void scan() throws Exception {
+        Database.resetBufferPool(100, 8);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        RecordingHeapFile table = TestUtil.createTable(1, 30, tuples);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        synchronized (table) {
+            assertEquals(30, table.pagesRead());
+            for (int i = 0; i < 30; i++) {
+                assertEquals(1, table.reads(i));
+            }
+            assertTrue(table.readAheads > 0);
+            // pages are read ahead several at a time
+            assertTrue(table.runs < table.readAheads);
+        }
+    }
+
+    /**
+     * A scan of a table larger than the pool evicts the pages behind it, not
+     * the ones read ahead of it, and reading ahead leaves enough room for
+     * the pages actually asked for when most of the pool is pinned.
+     */
+    @Test public void reserve() throws Exception {
+        BufferPool pool = Database.resetBufferPool(12, 8);
+        RecordingHeapFile table = TestUtil.createTable(1, 30, null);
+
+        for (int i = 0; i < 30; i++) {
+            pool.getPage(tid, new HeapPageId(table.id(), i), Permissions.READ_ONLY);
+        }
+        synchronized (table) {
+            assertEquals(30, table.pagesRead());
+            for (int i = 0; i < 30; i++) {
+                assertEquals(1, table.reads(i));
+            }
+            assertTrue(table.readAheads > 0);
+        }
+
+        for (int i = 20; i < 30; i++) {
+            pool.pinPage(new HeapPageId(table.id(), i));
+        }
+        for (int i = 0; i < 20; i++) {
+            pool.getPage(tid, new HeapPageId(table.id(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Pages fetched out of order are not read ahead.
+     */
+    @Test public void randomAccess() throws Exception {
+        BufferPool pool = Database.resetBufferPool(100, 8);
+        RecordingHeapFile table = TestUtil.createTable(1, 30, null);
+
+        for (int pageno : new int[]{ 5, 1, 9, 3 }) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        synchronized (table) {
+            assertEquals(4, table.pagesRead());
+            assertEquals(0, table.readAheads);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadAheadTest.class);
+    }
+}
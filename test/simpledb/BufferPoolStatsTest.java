@@ -0,0 +1,110 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolStatsTest {
+    private final TransactionId tid = new TransactionId();
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Histograms put durations in power of two buckets of microseconds.
+     */
+    @Test public void histogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(1500);
+        histogram.record(3000);
+        histogram.record(1000000000L); // a second
+        long[] counts = histogram.counts();
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[20]);
+        assertEquals(4, total(counts));
+        assertEquals(2, LatencyHistogram.percentileMicros(counts, 0.5));
+        assertEquals(1L << 20, LatencyHistogram.percentileMicros(counts, 1));
+        assertEquals(0, LatencyHistogram.percentileMicros(new long[LatencyHistogram.BUCKETS], 0.5));
+    }
+
+    /**
+     * The snapshot counts the fetches, evictions, reads and writes of the
+     * pool, and the pages it holds.
+     */
+    @Test public void snapshot() throws Exception {
+        BufferPool pool = Database.resetBufferPool(3, 0, new LruPolicy(), 1);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(1, 1024 * 5, null, null);
+        for (int pageno = 0; pageno < 4; pageno++) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(table.id(), 3), Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+
+        BufferPoolStats stats = pool.stats();
+        assertEquals(3, stats.numPages());
+        assertEquals(1, stats.hits());
+        assertEquals(4, stats.misses());
+        assertEquals(0.2, stats.hitRatio(), 1e-9);
+        assertEquals(1, stats.evictions());
+        assertEquals(1, stats.dirtyPages());
+        assertEquals(4, total(stats.readLatency()));
+        assertEquals(0, total(stats.writeLatency()));
+        assertEquals(Collections.singletonMap(table.id(), 3), stats.residency());
+
+        pool.flushAllPages();
+        stats = pool.stats();
+        assertEquals(0, stats.dirtyPages());
+        assertEquals(1, total(stats.writeLatency()));
+    }
+
+    /**
+     * The database's pool is visible through JMX, and replaced there when
+     * it is reset.
+     */
+    @Test public void mbean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Database.BUFFER_POOL_MBEAN);
+        BufferPool pool = Database.resetBufferPool(7);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(1, 1024 * 2, null, null);
+        pool.getPage(tid, new HeapPageId(table.id(), 0), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(table.id(), 0), Permissions.READ_ONLY);
+
+        assertEquals(7, server.getAttribute(name, "NumPages"));
+        assertEquals(1L, server.getAttribute(name, "Hits"));
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        assertEquals(1, ((TabularData) server.getAttribute(name, "Residency")).size());
+
+        Database.resetBufferPool(5);
+        assertEquals(5, server.getAttribute(name, "NumPages"));
+        assertEquals(0L, server.getAttribute(name, "Hits"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import simpledb.TestUtil.RecordingHeapFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolWriterTest {
+    private final TransactionId tid = new TransactionId();
+
+    /** Holds its writes until it is told to go on. */
+    private static class BlockingHeapFile extends RecordingHeapFile {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingHeapFile(File f) {
+            super(f);
+        }
+
+        public void writePage(Page page) throws IOException {
+            hold();
+            super.writePage(page);
+        }
+
+        public void writePages(List<Page> pages) throws IOException {
+            hold();
+            super.writePages(pages);
+        }
+
+        private void hold() throws IOException {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Deletes the first tuple of a page in the pool on behalf of the given
+     * transaction.
+     */
+    private HeapPage change(BufferPool pool, RecordingHeapFile table, int pageno, TransactionId tid)
+            throws Exception {
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        return page;
+    }
+
+    private static List<Integer> run(Integer... pagenos) {
+        return Arrays.asList(pagenos);
+    }
+
+    /**
+     * flushAllPages writes the dirty pages in order, each run of
+     * consecutive pages at once.
+     */
+    @Test public void flushAllPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(20, 0, new LruPolicy(), 1);
+        RecordingHeapFile table = TestUtil.createTable(2, 10, null);
+        for (int pageno : new int[]{ 5, 1, 7, 0, 2 }) {
+            change(pool, table, pageno, tid);
+        }
+        pool.getPage(tid, new HeapPageId(table.id(), 3), Permissions.READ_ONLY);
+
+        pool.flushAllPages();
+        assertEquals(Arrays.asList(run(0, 1, 2), run(5), run(7)), table.writes);
+        for (int pageno : new int[]{ 0, 1, 2, 5, 7 }) {
+            HeapPageId pid = new HeapPageId(table.id(), pageno);
+            assertNull(pool.getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+            assertEquals(1, ((HeapPage) table.readPage(pid)).getNumEmptySlots());
+        }
+        pool.flushAllPages();
+        assertEquals(3, table.writes.size());
+    }
+
+    /**
+     * flushPages only writes the pages last dirtied by the transaction.
+     */
+    @Test public void flushPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(20, 0, new LruPolicy(), 1);
+        RecordingHeapFile table = TestUtil.createTable(2, 4, null);
+        TransactionId other = new TransactionId();
+        change(pool, table, 0, tid);
+        HeapPage page1 = change(pool, table, 1, other);
+        change(pool, table, 2, tid);
+
+        pool.flushPages(tid);
+        assertEquals(Arrays.asList(run(0), run(2)), table.writes);
+        assertEquals(other, page1.isDirty());
+    }
+
+    /**
+     * The background writer leaves dirty pages alone until they take up
+     * more than the dirty ratio of the pool, and then writes them back, so
+     * that evicting them writes nothing.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4, 0, new LruPolicy(), 0.25);
+        RecordingHeapFile table = TestUtil.createTable(2, 8, null);
+        HeapPage page0 = change(pool, table, 0, tid);
+        Thread.sleep(3 * BufferPool.WRITER_INTERVAL_MS);
+        assertEquals(tid, page0.isDirty());
+
+        HeapPage page1 = change(pool, table, 1, tid);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (table) {
+                if (!table.writes.isEmpty()) break;
+            }
+            Thread.sleep(10);
+        }
+        synchronized (table) {
+            assertEquals(Arrays.asList(run(0, 1)), table.writes);
+        }
+        assertNull(page0.isDirty());
+        assertNull(page1.isDirty());
+
+        for (int pageno = 2; pageno < 8; pageno++) {
+            pool.getPage(tid, new HeapPageId(table.id(), pageno), Permissions.READ_ONLY);
+        }
+        synchronized (table) {
+            assertEquals(1, table.writes.size());
+        }
+        assertEquals(1, ((HeapPage) table.readPage(new HeapPageId(table.id(), 1))).getNumEmptySlots());
+    }
+
+    /**
+     * An eviction writes its dirty victim without holding the pool's lock,
+     * and evicts it once it is written.
+     */
+    @Test public void evictionWritesWithoutLock() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(2, 0, new LruPolicy(), 1);
+        final BlockingHeapFile table = new BlockingHeapFile(TestUtil.createTableFile(2, 3, null));
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(2));
+        change(pool, table, 0, tid);
+        change(pool, table, 1, tid);
+
+        final Exception[] failure = new Exception[1];
+        Thread fetch = new Thread() {
+            public void run() {
+                try {
+                    pool.getPage(tid, new HeapPageId(table.id(), 2), Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        fetch.start();
+        table.writing.await();
+
+        Thread locker = new Thread() {
+            public void run() {
+                pool.partitionOf(table.id());
+            }
+        };
+        locker.start();
+        locker.join(5000);
+        boolean blocked = locker.isAlive();
+        table.release.countDown();
+        fetch.join();
+        assertFalse("the pool's lock is held while the victim is written", blocked);
+        assertNull(failure[0]);
+        assertEquals(Arrays.asList(run(0)), table.writes);
+        assertEquals(1, pool.stats().evictions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolWriterTest.class);
+    }
+}
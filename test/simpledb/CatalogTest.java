@@ -17,6 +17,7 @@ public class CatalogTest {
         Database.getCatalog().clear();
         Database.getCatalog().addTable(new SkeletonFile(-1), Utility.getTupleDesc(2));
         Database.getCatalog().addTable(new SkeletonFile(-2), Utility.getTupleDesc(2), name);
+        Database.getCatalog().addTable(new SkeletonFile(-3), Utility.getTupleDesc(2), "big", 65536);
     }
 
     /**
@@ -51,6 +52,14 @@ public class CatalogTest {
         }
     }
 
+    /**
+     * Unit test for Catalog.getPageSize()
+     */
+    @Test public void getPageSize() throws Exception {
+        assertEquals(BufferPool.PAGE_SIZE, Database.getCatalog().getPageSize(-1));
+        assertEquals(65536, Database.getCatalog().getPageSize(-3));
+    }
+
     /**
      * Unit test for Catalog.getDbFile()
      */
@@ -62,6 +71,28 @@ public class CatalogTest {
         assertEquals(-1, f.id());
     }
 
+    /**
+     * Unit test for Catalog.addVersion(), swapVersion() and dropTable()
+     */
+    @Test public void versions() throws Exception {
+        Database.getCatalog().addVersion(-3, new SkeletonFile(-4));
+        assertEquals(-3, Database.getCatalog().getTableId("big"));
+        assertEquals(65536, Database.getCatalog().getPageSize(-4));
+
+        assertEquals(-3, Database.getCatalog().swapVersion(-4));
+        assertEquals(-4, Database.getCatalog().getTableId("big"));
+        assertEquals(-3, Database.getCatalog().getDbFile(-3).id());
+
+        Database.getCatalog().dropTable(-3);
+        assertEquals(-4, Database.getCatalog().getTableId("big"));
+        try {
+            Database.getCatalog().getDbFile(-3);
+            Assert.fail("Should not find a dropped version");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest {
+    private static final Type[] TYPES = new Type[]{
+        Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A ColumnFile that remembers which pages were read. */
+    private static class CountingColumnFile extends ColumnFile {
+        final Set<Integer> read = new TreeSet<Integer>();
+
+        CountingColumnFile(File f) {
+            super(f);
+        }
+
+        public Page readPage(PageId pid) {
+            read.add(pid.pageno());
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * @return a ColumnFile of the given number of rows; row i is
+     *         (i, "s" + i, 2 * i, "t" + i, 3 * i).
+     */
+    private CountingColumnFile create(int rows) throws IOException {
+        File text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++) {
+            w.write(i + ",s" + i + "," + (2 * i) + ",t" + i + "," + (3 * i) + "\n");
+        }
+        w.close();
+        File f = File.createTempFile("table", ".col");
+        f.deleteOnExit();
+        HeapFileEncoder.convertColumnar(text, f, TYPES.length, TYPES);
+
+        CountingColumnFile cf = new CountingColumnFile(f);
+        Database.getCatalog().addTable(cf, new TupleDesc(TYPES), "t" + f.getName());
+        return cf;
+    }
+
+    /**
+     * A full scan returns every column of every row, in order.
+     */
+    @Test public void scan() throws Exception {
+        ColumnFile cf = create(300);
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 300; i++) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("s" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(new IntField(2 * i), t.getField(2));
+            assertEquals("t" + i, ((StringField) t.getField(3)).getValue());
+            assertEquals(new IntField(3 * i), t.getField(4));
+        }
+        assertFalse(it.hasNext());
+        it.rewind();
+        assertEquals(new IntField(0), it.next().getField(0));
+        it.close();
+    }
+
+    /**
+     * A scan of two columns reads only the pages of those columns.
+     */
+    @Test public void scanColumns() throws Exception {
+        CountingColumnFile cf = create(1500);
+        // 1024 ints or 31 strings fit on a page
+        assertEquals(1 + 3 * 2 + 2 * 49, cf.numPages());
+        assertEquals(1500, cf.numRows());
+
+        SeqScan scan = new SeqScan(tid, cf.id(), "t", new int[]{ 4, 3 });
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals(Type.STRING_TYPE, scan.getTupleDesc().getType(1));
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(3 * i), t.getField(0));
+            assertEquals("t" + i, ((StringField) t.getField(1)).getValue());
+            i++;
+        }
+        scan.close();
+        assertEquals(1500, i);
+
+        // columns 3 and 4 are the last two segments of the file
+        Set<Integer> expected = new TreeSet<Integer>();
+        for (int p = 0; p < 49; p++) expected.add(1 + 2 + 49 + 2 + p);
+        expected.add(1 + 2 + 49 + 2 + 49);
+        expected.add(1 + 2 + 49 + 2 + 49 + 1);
+        assertEquals(expected, cf.read);
+    }
+
+    /**
+     * Closing the file does not stop a scan that is running.
+     */
+    @Test public void closeWhileScanning() throws Exception {
+        ColumnFile cf = create(2000);
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        assertEquals(new IntField(0), it.next().getField(0));
+        cf.close();
+        int i = 1;
+        while (it.hasNext()) {
+            assertEquals(new IntField(3 * i), it.next().getField(4));
+            i++;
+        }
+        it.close();
+        assertEquals(2000, i);
+    }
+
+    /**
+     * A ColumnFile cannot be modified.
+     */
+    @Test(expected=DbException.class) public void addTuple() throws Exception {
+        ColumnFile cf = create(1);
+        Tuple t = new Tuple(new TupleDesc(TYPES));
+        cf.addTuple(tid, t);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return a compressed copy of a random two column table with the given
+     *         number of rows, whose tuples are added to tuples.
+     */
+    private CompressedHeapFile createCompressed(int rows, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1000, null, tuples);
+        File f = File.createTempFile("table", ".cdat");
+        f.deleteOnExit();
+        CompressedHeapFile.indexFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(plain);
+        Database.getCatalog().addTable(hf, Utility.getTupleDesc(2));
+        CompressedHeapFile.convert(plain, f, hf.bytesPerPage());
+
+        CompressedHeapFile cf = new CompressedHeapFile(f);
+        Database.getCatalog().addTable(cf, Utility.getTupleDesc(2));
+        return cf;
+    }
+
+    /**
+     * A compressed table scans like the table it was made from, from a much
+     * smaller file.
+     */
+    @Test
+    public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        CompressedHeapFile cf = createCompressed(1200, tuples);
+        assertEquals(3, cf.numPages());
+        SystemTestUtil.matchTuples(cf, tuples);
+        assertTrue(cf.getFile().length() < 3 * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Consecutive pages read together match the pages read one by one.
+     */
+    @Test
+    public void readPages() throws Exception {
+        CompressedHeapFile cf = createCompressed(1200, null);
+        List<Page> pages = cf.readPages(new HeapPageId(cf.id(), 1), 3);
+        assertEquals(3, pages.size());
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(cf.id(), 1 + i);
+            assertArrayEquals(cf.readPage(pid).getPageData(), pages.get(i).getPageData());
+        }
+        assertEquals(512, ((HeapPage) pages.get(2)).getNumEmptySlots());
+    }
+
+    /**
+     * Pages written back are found through the index, whether they are
+     * rewritten in place, appended, or added past the end of the file.
+     */
+    @Test
+    public void writePage() throws Exception {
+        CompressedHeapFile cf = createCompressed(10, null);
+        HeapPageId pid0 = new HeapPageId(cf.id(), 0);
+        HeapPage page = (HeapPage) cf.readPage(pid0);
+        assertEquals(502, page.getNumEmptySlots());
+
+        // fewer tuples compress smaller, so the page is rewritten in place
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        page.deleteTuple(first);
+        long length = cf.getFile().length();
+        cf.writePage(page);
+        assertEquals(length, cf.getFile().length());
+        assertEquals(503, ((HeapPage) cf.readPage(pid0)).getNumEmptySlots());
+
+        // more tuples need more room, so the page moves to the end
+        for (int i = 0; i < 50; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{ i, i * 31 });
+            page.addTuple(t);
+        }
+        cf.writePage(page);
+        assertTrue(cf.getFile().length() > length);
+
+        // a page two past the end leaves an empty page in between
+        HeapPageId pid2 = new HeapPageId(cf.id(), 2);
+        cf.writePage(new HeapPage(pid2, page.getPageData()));
+        assertEquals(3, cf.numPages());
+        cf.close();
+
+        CompressedHeapFile reopened = new CompressedHeapFile(cf.getFile());
+        Database.getCatalog().addTable(reopened, Utility.getTupleDesc(2));
+        assertEquals(3, reopened.numPages());
+        assertEquals(453, ((HeapPage) reopened.readPage(pid0)).getNumEmptySlots());
+        assertEquals(512, ((HeapPage) reopened.readPage(new HeapPageId(cf.id(), 1))).getNumEmptySlots());
+        assertEquals(453, ((HeapPage) reopened.readPage(pid2)).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
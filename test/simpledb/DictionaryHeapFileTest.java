@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DictionaryHeapFileTest {
+    private static final TupleDesc TD =
+            new TupleDesc(new Type[]{ Type.INT_TYPE, Type.STRING_TYPE });
+
+    private TransactionId tid;
+    private DictionaryHeapFile df;
+
+    /**
+     * Set up initial resources for each unit test: a table of 1000 tuples
+     * with 10 distinct strings.
+     */
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+
+        File in = File.createTempFile("table", ".txt");
+        in.deleteOnExit();
+        Writer w = new FileWriter(in);
+        for (int i = 0; i < 1000; i++) {
+            w.write(i + ",code" + (i % 10) + "\n");
+        }
+        w.close();
+        File out = File.createTempFile("table", ".dat");
+        out.deleteOnExit();
+        DictionaryHeapFile.dictionaryFile(out).deleteOnExit();
+        HeapFile.zoneMapFile(out).deleteOnExit();
+        HeapFileEncoder.convertDictionary(in, out, BufferPool.PAGE_SIZE, 2,
+                new Type[]{ Type.INT_TYPE, Type.STRING_TYPE });
+
+        df = new DictionaryHeapFile(out);
+        Database.getCatalog().addTable(df, TD);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private List<Tuple> scan(DbIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Codes take 4 bytes a field, so the table fits on 2 pages instead of
+     * the 34 of the fixed length format, and equal strings share a field.
+     */
+    @Test public void scan1000() throws Exception {
+        assertEquals(2, df.numPages());
+        List<Tuple> tuples = scan(new SeqScan(tid, df.id(), "t"));
+        assertEquals(1000, tuples.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals("code" + (i % 10), tuples.get(i).getField(1).toString());
+        }
+        assertSame(tuples.get(3).getField(1), tuples.get(13).getField(1));
+        assertEquals(new StringField("code3", Type.STRING_LEN), tuples.get(3).getField(1));
+    }
+
+    /**
+     * Equality with a dictionary encoded field compares codes.
+     */
+    @Test public void filter() throws Exception {
+        List<Tuple> tuples = scan(new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("code7", Type.STRING_LEN)), new SeqScan(tid, df.id(), "t")));
+        assertEquals(100, tuples.size());
+        for (Tuple t : tuples) {
+            assertEquals(7, ((IntField) t.getField(0)).getValue() % 10);
+        }
+        assertEquals(0, scan(new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("code10", Type.STRING_LEN)), new SeqScan(tid, df.id(), "t"))).size());
+        assertEquals(1000, scan(new Filter(new Predicate(1, Predicate.Op.LIKE,
+                new StringField("code", Type.STRING_LEN)), new SeqScan(tid, df.id(), "t"))).size());
+    }
+
+    /**
+     * A value the dictionary doesn't have yet is looked up again, so a
+     * predicate and a rewound filter find it once it has been inserted.
+     */
+    @Test public void filterInserted() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("code10", Type.STRING_LEN));
+        Filter filter = new Filter(p, new SeqScan(tid, df.id(), "t"));
+        filter.open();
+        assertFalse(filter.hasNext());
+        Tuple first = scan(new SeqScan(tid, df.id(), "t")).get(0);
+        assertFalse(p.filter(first));
+
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(1000));
+        t.setField(1, new StringField("code10", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, df.id(), t);
+
+        List<Tuple> tuples = scan(new SeqScan(tid, df.id(), "t"));
+        assertTrue(p.filter(tuples.get(1000)));
+        assertFalse(p.filter(first));
+        filter.rewind();
+        assertTrue(filter.hasNext());
+        assertEquals(new IntField(1000), filter.next().getField(0));
+        assertFalse(filter.hasNext());
+        filter.close();
+    }
+
+    /**
+     * Grouping by a dictionary encoded field counts by code.
+     */
+    @Test public void groupBy() throws Exception {
+        StringAggregator agg = new StringAggregator(1, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+        DbIterator scan = new SeqScan(tid, df.id(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            agg.merge(scan.next());
+        }
+        scan.close();
+        Tuple plain = new Tuple(TD);
+        plain.setField(0, new IntField(-1));
+        plain.setField(1, new StringField("code4", Type.STRING_LEN));
+        agg.merge(plain);
+
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Tuple t : scan(agg.iterator())) {
+            assertNull(counts.put(t.getField(0).toString(), ((IntField) t.getField(1)).getValue()));
+        }
+        assertEquals(10, counts.size());
+        assertEquals(Integer.valueOf(100), counts.get("code0"));
+        assertEquals(Integer.valueOf(101), counts.get("code4"));
+    }
+
+    /**
+     * New values get codes that are saved in the sidecar right away.
+     */
+    @Test public void addTuple() throws Exception {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(1000));
+        t.setField(1, new StringField("fresh", Type.STRING_LEN));
+        df.addTuple(tid, t);
+        assertEquals(1, t.getRecordID().pageid().pageno());
+        assertEquals(11, df.dictionaries()[1].size());
+
+        DictionaryHeapFile reopened = new DictionaryHeapFile(df.getFile());
+        Database.getCatalog().addTable(reopened, TD);
+        assertNull(reopened.dictionaries()[0]);
+        assertEquals(10, reopened.dictionaries()[1].code("fresh"));
+        assertEquals(3, reopened.dictionaries()[1].code("code3"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryHeapFileTest.class);
+    }
+}
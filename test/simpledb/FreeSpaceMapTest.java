@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest {
+    private File sidecar;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        sidecar = File.createTempFile("table", ".fsm");
+        sidecar.deleteOnExit();
+        sidecar.delete();
+    }
+
+    /**
+     * Pages the map has not seen yet are assumed to have space.
+     */
+    @Test public void unknownPagesAreFree() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecar);
+        assertEquals(-1, fsm.nextFreePage(0, 0));
+        assertEquals(0, fsm.nextFreePage(0, 3));
+        assertEquals(2, fsm.nextFreePage(2, 3));
+        assertEquals(-1, fsm.nextFreePage(3, 3));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.setFree()
+     */
+    @Test public void setFree() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecar);
+        for (int i = 0; i < 10; i++)
+            fsm.setFree(i, false);
+        assertEquals(-1, fsm.nextFreePage(0, 10));
+        assertEquals(10, fsm.nextFreePage(0, 11));
+
+        fsm.setFree(4, true);
+        assertEquals(4, fsm.nextFreePage(0, 11));
+        assertEquals(10, fsm.nextFreePage(5, 11));
+        fsm.setFree(4, false);
+        assertEquals(10, fsm.nextFreePage(0, 11));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.flush() and reloading the sidecar file.
+     */
+    @Test public void flush() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecar);
+        for (int i = 0; i < 20; i++)
+            fsm.setFree(i, i % 7 == 3);
+        fsm.flush();
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(sidecar);
+        assertEquals(3, reloaded.nextFreePage(0, 20));
+        assertEquals(10, reloaded.nextFreePage(4, 20));
+        assertEquals(17, reloaded.nextFreePage(11, 20));
+        assertEquals(-1, reloaded.nextFreePage(18, 20));
+        assertEquals(20, reloaded.nextFreePage(18, 21));
+    }
+
+    /**
+     * A sidecar written before its heap file last changed is ignored, so
+     * that it can't hide pages that have room since.
+     */
+    @Test public void staleSidecar() throws Exception {
+        File data = File.createTempFile("table", ".dat");
+        data.deleteOnExit();
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecar, data);
+        for (int i = 0; i < 20; i++)
+            fsm.setFree(i, false);
+        fsm.flush();
+        assertEquals(-1, new FreeSpaceMap(sidecar, data).nextFreePage(0, 20));
+
+        // the heap file changes, e.g. deletes are written, but the map is
+        // never saved again
+        assertTrue(data.setLastModified(data.lastModified() + 2000));
+        assertEquals(0, new FreeSpaceMap(sidecar, data).nextFreePage(0, 20));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest {
+    private static final Type[] TYPES = new Type[]{ Type.INT_TYPE, Type.STRING_TYPE };
+
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("table", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File writeText(String text) throws IOException {
+        File f = tempFile(".txt");
+        Writer w = new FileWriter(f);
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+    /** @return the tuples of the encoded file, one "int,string" entry each. */
+    private List<String> scan(File dat) throws Exception {
+        HeapFile hf = new HeapFile(dat);
+        Database.getCatalog().addTable(hf, new TupleDesc(TYPES));
+        List<String> rows = new ArrayList<String>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getField(0) + "," + t.getField(1));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Blank lines, CRLF line ends, padding and a missing final newline.
+     */
+    @Test public void convertText() throws Exception {
+        File in = writeText("1,a\r\n\n  -2 , b c \n3,\n4,d");
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 2, TYPES);
+
+        assertEquals(Arrays.asList("1,a", "-2,b c", "3,", "4,d"), scan(out));
+    }
+
+    /**
+     * An empty input still produces one (empty) page.
+     */
+    @Test public void convertEmpty() throws Exception {
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(writeText(""), out, BufferPool.PAGE_SIZE, 2, TYPES, 4);
+        assertEquals(0, scan(out).size());
+        assertEquals(1, new HeapFile(out).numPages());
+    }
+
+    /**
+     * Encoding in parallel yields the same tuples, in the same order, as
+     * encoding on one thread.
+     */
+    @Test public void convertParallel() throws Exception {
+        StringBuilder text = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            text.append(i).append(",s").append(i * 7).append('\n');
+            expected.add(i + ",s" + (i * 7));
+        }
+        File in = writeText(text.toString());
+
+        for (int nthreads = 1; nthreads <= 5; nthreads++) {
+            File out = tempFile(".dat");
+            HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 2, TYPES, nthreads);
+            assertEquals(expected, scan(out));
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /**
+     * A line with too many fields is rejected.
+     */
+    @Test(expected=IOException.class) public void convertMalformed() throws Exception {
+        HeapFileEncoder.convert(writeText("1,a,2\n"), tempFile(".dat"),
+                BufferPool.PAGE_SIZE, 2, TYPES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -67,6 +68,82 @@ public class HeapFileReadTest {
         assertFalse(page.getSlot(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        List<Page> pages = big.readPages(new HeapPageId(big.id(), 1), 4);
+        assertEquals(4, pages.size());
+        for (int i = 0; i < 4; i++) {
+            HeapPageId pid = new HeapPageId(big.id(), 1 + i);
+            assertEquals(pid, pages.get(i).id());
+            assertArrayEquals(big.readPage(pid).getPageData(), pages.get(i).getPageData());
+        }
+        // pages past the end of the file read as empty
+        assertEquals(512, ((HeapPage) pages.get(3)).getNumEmptySlots());
+    }
+
+    /**
+     * A table with 16K pages holds four times as many tuples per page, and
+     * each of its pages takes up four pages of the buffer pool.
+     */
+    @Test
+    public void largePages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, 4 * BufferPool.PAGE_SIZE, 2);
+        HeapFile big = new HeapFile(f);
+        Database.getCatalog().addTable(big, Utility.getTupleDesc(2), "", 4 * BufferPool.PAGE_SIZE);
+
+        // 2048 slots per page, with a 260 byte header
+        assertEquals(4 * BufferPool.PAGE_SIZE + 260, big.bytesPerPage());
+        assertEquals(3, big.numPages());
+        HeapPage page = (HeapPage) big.readPage(new HeapPageId(big.id(), 2));
+        assertEquals(3 * 2048 - 5000, page.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), new HeapPage(page.id(), page.getPageData()).getPageData());
+        SystemTestUtil.matchTuples(big, tuples);
+
+        BufferPool pool = Database.resetBufferPool(10);
+        HeapPageId pid0 = new HeapPageId(big.id(), 0);
+        pool.getPage(tid, pid0, Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(big.id(), 1), Permissions.READ_ONLY);
+        pool.pinPage(pid0);
+        pool.pinPage(new HeapPageId(big.id(), 1));
+        try {
+            pool.getPage(tid, new HeapPageId(big.id(), 2), Permissions.READ_ONLY);
+            fail("three 16K pages do not fit in ten 4K pages");
+        } catch (DbException e) {
+            // expected
+        }
+        // the third page takes the place of the one that is not pinned
+        pool.unpinPage(pid0);
+        try {
+            pool.getPage(tid, new HeapPageId(big.id(), 2), Permissions.READ_ONLY);
+        } finally {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.close(): the file handle is reopened on demand.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.id(), 0);
+        hf.readPage(pid);
+        hf.close();
+        hf.close();
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(492, page.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
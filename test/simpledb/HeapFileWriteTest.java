@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.File;
+import java.util.*;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,228 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.appendTuples()
+     */
+    @Test public void appendTuples() throws Exception {
+        int before = empty.numPages();
+        int[] data = new int[1300 * 2];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = i / 2;
+        }
+        assertEquals(1300, empty.appendTuples(tid, TestUtil.createTupleList(2, data)));
+
+        // two full pages and one with the last 276 tuples, all on disk
+        assertEquals(before + 3, empty.numPages());
+        assertEquals((long) (before + 3) * empty.bytesPerPage(), empty.getFile().length());
+        HeapPage last = (HeapPage) empty.readPage(new HeapPageId(empty.id(), before + 2));
+        assertEquals(512 - 276, last.getNumEmptySlots());
+
+        List<Integer> values = new ArrayList<Integer>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        assertEquals(1300, values.size());
+        for (int i = 0; i < values.size(); ++i) {
+            assertEquals(i, (int) values.get(i));
+        }
+
+        // the next addTuple goes on the last page, which has room
+        Tuple t = Utility.getHeapTuple(0, 2);
+        empty.addTuple(tid, t);
+        assertEquals(before + 2, t.getRecordID().pageid().pageno());
+    }
+
+    /**
+     * The Insert operator appends to a HeapFile in bulk.
+     */
+    @Test public void insert() throws Exception {
+        int before = empty.numPages();
+        int[] data = new int[600 * 2];
+        Insert insert = new Insert(tid, TestUtil.createTupleList(2, data), empty.id());
+        insert.open();
+        assertTrue(insert.hasNext());
+        assertEquals(new IntField(600), insert.next().getField(0));
+        assertFalse(insert.hasNext());
+        insert.close();
+        assertEquals(before + 2, empty.numPages());
+    }
+
+    /**
+     * An insert of a few tuples goes through the BufferPool, onto a page
+     * with room, and dirties it.
+     */
+    @Test public void smallInserts() throws Exception {
+        insertRows(1);
+        int before = empty.numPages();
+        for (int i = 0; i < 3; i++) {
+            insertRows(1);
+        }
+        assertEquals(before, empty.numPages());
+        assertEquals(4, countRows());
+        HeapPage page = (HeapPage) Database.getBufferPool()
+                .getPage(tid, new HeapPageId(empty.id(), before - 1), Permissions.READ_ONLY);
+        assertEquals(tid, page.isDirty());
+    }
+
+    /**
+     * Rows inserted after a scan of the empty table are seen by the next
+     * scan, whichever way they are inserted.
+     */
+    @Test public void scanInsertScan() throws Exception {
+        File f = File.createTempFile("nopages", ".dat");
+        f.deleteOnExit();
+        empty = Utility.openHeapFile(2, f);
+        assertEquals(0, empty.numPages());
+        assertEquals(0, countRows());
+        insertRows(1000);
+        assertEquals(1000, countRows());
+        insertRows(10);
+        assertEquals(1010, countRows());
+    }
+
+    private void insertRows(int n) throws Exception {
+        Insert insert = new Insert(tid, TestUtil.createTupleList(2, new int[n * 2]), empty.id());
+        insert.open();
+        assertEquals(new IntField(n), insert.next().getField(0));
+        insert.close();
+    }
+
+    private int countRows() throws Exception {
+        int n = 0;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Rows deleted through the BufferPool stay deleted once their pages
+     * are evicted from a pool too small to hold the table.
+     */
+    @Test public void deleteAndEvict() throws Exception {
+        int[] data = new int[2000 * 2];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = i / 2;
+        }
+        empty.appendTuples(tid, TestUtil.createTupleList(2, data));
+        BufferPool pool = Database.resetBufferPool(2);
+        try {
+            List<Tuple> doomed = new ArrayList<Tuple>();
+            DbFileIterator it = empty.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() % 4 != 0) doomed.add(t);
+            }
+            it.close();
+            for (Tuple t : doomed) {
+                pool.deleteTuple(tid, t);
+            }
+
+            // read every page twice to evict each of them at least once
+            for (int pass = 0; pass < 2; pass++) {
+                int n = 0;
+                it = empty.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    assertEquals(0, ((IntField) it.next().getField(0)).getValue() % 4);
+                    n++;
+                }
+                it.close();
+                assertEquals(500, n);
+            }
+            assertTrue(pool.stats().evictions() > 0);
+        } finally {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.vacuum()
+     */
+    @Test public void vacuum() throws Exception {
+        int[] data = new int[2000 * 2];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = i / 2;
+        }
+        int before = empty.numPages();
+        empty.appendTuples(tid, TestUtil.createTupleList(2, data));
+        assertEquals(before + 4, empty.numPages());
+
+        // delete three tuples out of four
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 4 != 0) doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            empty.deleteTuple(tid, t);
+        }
+
+        HeapFile version = empty.vacuum(tid);
+        version.getFile().deleteOnExit();
+        HeapFile.zoneMapFile(version.getFile()).deleteOnExit();
+        assertEquals(1, version.numPages());
+        assertEquals(version.id(), Database.getCatalog().getTableId(""));
+
+        int n = 0;
+        it = version.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(0, ((IntField) t.getField(0)).getValue() % 4);
+            assertEquals(version.id(), t.getRecordID().pageid().tableid());
+            n++;
+        }
+        it.close();
+        assertEquals(500, n);
+
+        // the old version stays readable by id until it is dropped, and
+        // a scan that is reading it when it is dropped goes on to its end
+        assertSame(empty, Database.getCatalog().getDbFile(empty.id()));
+        DbFileIterator old = empty.iterator(tid);
+        old.open();
+        assertTrue(old.hasNext());
+        old.next();
+        Database.getCatalog().dropTable(empty.id());
+        try {
+            empty.iterator(tid).open();
+            fail("new scans of a dropped table should fail");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        n = 1;
+        while (old.hasNext()) {
+            old.next();
+            n++;
+        }
+        assertEquals(500, n);
+        assertTrue(empty.getFile().exists());
+
+        // its files go once the scan is closed
+        old.close();
+        assertFalse(empty.getFile().exists());
+        assertFalse(HeapFile.zoneMapFile(empty.getFile()).exists());
+        assertFalse(HeapFile.freeSpaceMapFile(empty.getFile()).exists());
+        try {
+            Database.getCatalog().getDbFile(empty.id());
+            fail("the old version should be gone");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -97,6 +97,20 @@ public class HeapPageReadTest {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData(), both for a page that was never
+     * looked at and one whose tuples were partially decoded.
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        it.next().getField(1);
+        it.next();
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.isDirty()
      */
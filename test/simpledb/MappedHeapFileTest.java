@@ -0,0 +1,100 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private MappedHeapFile open(File f, long segmentBytes) {
+        MappedHeapFile mf = new MappedHeapFile(f, segmentBytes);
+        Database.getCatalog().addTable(mf, Utility.getTupleDesc(2));
+        return mf;
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage()
+     */
+    @Test
+    public void readPage() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 20, 1000, null, null);
+        MappedHeapFile mf = open(f, MappedHeapFile.DEFAULT_SEGMENT_BYTES);
+
+        HeapPage page = (HeapPage) mf.readPage(new HeapPageId(mf.id(), 0));
+        assertEquals(492, page.getNumEmptySlots());
+        assertTrue(page.getSlot(1));
+        assertFalse(page.getSlot(20));
+
+        // a page past the end of the file reads as empty
+        page = (HeapPage) mf.readPage(new HeapPageId(mf.id(), 1));
+        assertEquals(512, page.getNumEmptySlots());
+    }
+
+    /**
+     * Scans a file mapped in many small segments, one to three pages each.
+     */
+    @Test
+    public void scanAcrossSegments() throws Exception {
+        for (int pagesPerSegment = 1; pagesPerSegment <= 3; pagesPerSegment++) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2600, 1000, null, tuples);
+            // 2-column pages are 4096 bytes of tuples plus a 68 byte header
+            MappedHeapFile mf = open(f, 4164L * pagesPerSegment + 100);
+            assertEquals(6, mf.numPages());
+            SystemTestUtil.matchTuples(mf, tuples);
+            mf.close();
+        }
+    }
+
+    /**
+     * Tuples read from the mapping keep their values when their page is
+     * written over.
+     */
+    @Test
+    public void writeUnderReaders() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 20, 1000, null, tuples);
+        MappedHeapFile mf = open(f, MappedHeapFile.DEFAULT_SEGMENT_BYTES);
+        HeapPageId pid = new HeapPageId(mf.id(), 0);
+        Tuple first = ((HeapPage) mf.readPage(pid)).iterator().next(); // not decoded yet
+
+        // write the page with another tuple in the first slot
+        HeapPage changed = new HeapPage(pid, ((HeapPage) mf.readPage(pid)).getPageData());
+        changed.deleteTuple(changed.iterator().next());
+        changed.addTuple(Utility.getHeapTuple(-1, 2));
+        mf.writePage(changed);
+
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(first));
+        Tuple reread = ((HeapPage) mf.readPage(pid)).iterator().next();
+        assertEquals(new IntField(-1), reread.getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCompressorTest {
+
+    private static void assertRoundTrip(byte[] page) throws IOException {
+        byte[] blob = PageCompressor.compress(page);
+        assertArrayEquals(page, PageCompressor.decompress(blob, 0, blob.length, page.length));
+    }
+
+    /**
+     * An empty page is nearly all zeroes and compresses to a few bytes.
+     */
+    @Test public void emptyPage() throws Exception {
+        byte[] page = new byte[4164];
+        assertRoundTrip(page);
+        assertTrue(PageCompressor.compress(page).length < 16);
+    }
+
+    /**
+     * The example HeapPage, with its header, twenty tuples and empty slots.
+     */
+    @Test public void heapPage() throws Exception {
+        byte[] page = HeapPageReadTest.EXAMPLE_DATA;
+        assertRoundTrip(page);
+        assertTrue(PageCompressor.compress(page).length < page.length / 10);
+    }
+
+    /**
+     * Repeated values that are not zeroes are left to the LZ codec.
+     */
+    @Test public void repeatedValues() throws Exception {
+        byte[] page = new byte[4096];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = (byte) ("simpledb".charAt(i % 8));
+        }
+        assertRoundTrip(page);
+        assertEquals(PageCompressor.LZ, PageCompressor.compress(page)[0]);
+    }
+
+    /**
+     * Random bytes do not compress and are stored as they are.
+     */
+    @Test public void randomPage() throws Exception {
+        byte[] page = new byte[4096];
+        new Random(42).nextBytes(page);
+        assertRoundTrip(page);
+        byte[] blob = PageCompressor.compress(page);
+        assertEquals(PageCompressor.STORED, blob[0]);
+        assertEquals(page.length + 1, blob.length);
+    }
+
+    /**
+     * A compressed page that was cut short is rejected.
+     */
+    @Test(expected=IOException.class) public void truncated() throws Exception {
+        byte[] blob = PageCompressor.compress(HeapPageReadTest.EXAMPLE_DATA);
+        PageCompressor.decompress(blob, 0, blob.length / 2, HeapPageReadTest.EXAMPLE_DATA.length);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCompressorTest.class);
+    }
+}
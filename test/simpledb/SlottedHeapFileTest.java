@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest {
+    private static final TupleDesc TD =
+            new TupleDesc(new Type[]{ Type.INT_TYPE, Type.STRING_TYPE });
+
+    private TransactionId tid;
+    private SlottedHeapFile sf;
+
+    /**
+     * Set up initial resources for each unit test: a table of 1000 tuples
+     * with short strings.
+     */
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+
+        File in = File.createTempFile("table", ".txt");
+        in.deleteOnExit();
+        Writer w = new FileWriter(in);
+        for (int i = 0; i < 1000; i++) {
+            w.write(i + ",code" + (i % 10) + "\n");
+        }
+        w.close();
+        File out = File.createTempFile("table", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convertSlotted(in, out, BufferPool.PAGE_SIZE, 2,
+                new Type[]{ Type.INT_TYPE, Type.STRING_TYPE });
+
+        sf = new SlottedHeapFile(out);
+        Database.getCatalog().addTable(sf, TD);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private List<Tuple> scan() throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Short strings take far less room than in the fixed length format,
+     * which would need 34 pages for this table.
+     */
+    @Test public void scan1000() throws Exception {
+        assertEquals(4, sf.numPages());
+        List<Tuple> tuples = scan();
+        assertEquals(1000, tuples.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals("code" + (i % 10), tuples.get(i).getField(1).toString());
+        }
+    }
+
+    /**
+     * Unit test for SlottedPage.addTuple(), deleteTuple() and getPageData().
+     */
+    @Test public void modifyPage() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.id(), 0);
+        SlottedPage page = (SlottedPage) sf.readPage(pid);
+        List<Tuple> before = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) before.add(it.next());
+
+        // free a slot in the middle of the full page and fill it again
+        Tuple victim = before.get(5);
+        page.deleteTuple(victim);
+        assertFalse(page.getSlot(5));
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("other", Type.STRING_LEN));
+        page.addTuple(t);
+        assertEquals(5, t.getRecordID().tupleno());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        it = copy.iterator();
+        for (int i = 0; i < before.size(); i++) {
+            Tuple expected = i == 5 ? t : before.get(i);
+            Tuple actual = it.next();
+            assertTrue(TestUtil.compareTuples(expected, actual));
+            assertEquals(i, actual.getRecordID().tupleno());
+        }
+        assertFalse(it.hasNext());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+    }
+
+    /**
+     * Strings read back as they were written, whatever the platform's
+     * charset.
+     */
+    @Test public void latin1Strings() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.id(), 0);
+        SlottedPage page = (SlottedPage) sf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("caf\u00e9 \u00fc\u00ff", Type.STRING_LEN));
+        page.addTuple(t);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals("caf\u00e9 \u00fc\u00ff", ((StringField) it.next().getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for SlottedHeapFile.addTuple(): the table grows one page at a
+     * time once the existing pages are full.
+     */
+    @Test public void addTuple() throws Exception {
+        int pages = sf.numPages();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("x", Type.STRING_LEN));
+            sf.addTuple(tid, t);
+        }
+        assertTrue(sf.numPages() > pages);
+        assertTrue(sf.numPages() <= pages + 2);
+        assertEquals(1500, scan().size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import simpledb.systemtest.SystemTestUtil;
+
 import java.io.*;
 import java.util.*;
 
@@ -204,6 +206,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public List<Page> readPages(PageId first, int count) throws NoSuchElementException {
+            throw new RuntimeException("not implemented");
+        }
+
         public int numPages() {
             throw new RuntimeException("not implemented");
         }
@@ -212,6 +218,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void writePages(List<Page> pages) throws IOException {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -350,6 +360,135 @@ public class TestUtil {
         }
     }
 
+    /**
+     * HeapFile that counts the reads of each of its pages, through readPage
+     * and readPages alike.  Pages are read without holding its lock, so
+     * reads of different pages may go on at once.
+     */
+    public static class CountingHeapFile extends HeapFile {
+        private final Map<Integer, Integer> reads = new HashMap<Integer, Integer>();
+        private int total;
+
+        public CountingHeapFile(File f) {
+            super(f);
+        }
+
+        public Page readPage(PageId pid) {
+            Page page = super.readPage(pid);
+            counted(pid.pageno());
+            return page;
+        }
+
+        public List<Page> readPages(PageId first, int count) {
+            List<Page> pages = super.readPages(first, count);
+            synchronized (this) {
+                for (Page page : pages) {
+                    counted(page.id().pageno());
+                }
+            }
+            return pages;
+        }
+
+        /**
+         * Called after each page is read.
+         */
+        protected synchronized void counted(int pageno) {
+            Integer n = this.reads.get(pageno);
+            this.reads.put(pageno, n == null ? 1 : n + 1);
+            this.total++;
+        }
+
+        /**
+         * @return the number of pages read so far.
+         */
+        public synchronized int reads() {
+            return this.total;
+        }
+
+        /**
+         * @return the number of times the specified page was read.
+         */
+        public synchronized int reads(int pageno) {
+            Integer n = this.reads.get(pageno);
+            return n == null ? 0 : n;
+        }
+
+        /**
+         * @return the number of different pages read.
+         */
+        public synchronized int pagesRead() {
+            return this.reads.size();
+        }
+    }
+
+    /**
+     * CountingHeapFile that also records the pages read by the read-ahead
+     * thread, the runs read with readPages, and the page numbers of each
+     * write.
+     */
+    public static class RecordingHeapFile extends CountingHeapFile {
+        final List<List<Integer>> writes = new ArrayList<List<Integer>>();
+        int readAheads;
+        int runs;
+
+        public RecordingHeapFile(File f) {
+            super(f);
+        }
+
+        protected synchronized void counted(int pageno) {
+            super.counted(pageno);
+            if (Thread.currentThread().getName().equals("read-ahead")) readAheads++;
+        }
+
+        public List<Page> readPages(PageId first, int count) {
+            List<Page> pages = super.readPages(first, count);
+            synchronized (this) {
+                runs++;
+            }
+            return pages;
+        }
+
+        public void writePage(Page page) throws IOException {
+            super.writePage(page);
+            recordWrite(Collections.singletonList(page));
+        }
+
+        public void writePages(List<Page> pages) throws IOException {
+            super.writePages(pages);
+            recordWrite(pages);
+        }
+
+        private synchronized void recordWrite(List<Page> pages) {
+            List<Integer> pagenos = new ArrayList<Integer>();
+            for (Page page : pages) {
+                pagenos.add(page.id().pageno());
+            }
+            writes.add(pagenos);
+        }
+    }
+
+    /**
+     * @return a temporary file of about the given number of pages of random
+     *   tuples with the given number of INT fields, in the HeapFile format.
+     * @param tuples if not null, gets the tuples of the file
+     */
+    public static File createTableFile(int columns, int pages, ArrayList<ArrayList<Integer>> tuples)
+            throws IOException {
+        return SystemTestUtil.createRandomHeapFileUnopened(columns, 1024 / columns * pages, 1000,
+                null, tuples);
+    }
+
+    /**
+     * @return a RecordingHeapFile over a file made by createTableFile, added
+     *   to the catalog.
+     */
+    public static RecordingHeapFile createTable(int columns, int pages,
+            ArrayList<ArrayList<Integer>> tuples) throws IOException {
+        RecordingHeapFile table = new RecordingHeapFile(createTableFile(columns, pages, tuples));
+        Database.getCatalog().addTable(table, Utility.getTupleDesc(columns));
+        return table;
+    }
+
     /** JUnit fixture that creates a heap file and cleans it up afterward. */
     public static abstract class CreateHeapFile {
         protected CreateHeapFile() {
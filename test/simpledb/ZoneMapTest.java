@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest {
+    private File sidecar;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        sidecar = File.createTempFile("table", ".zm");
+        sidecar.deleteOnExit();
+        sidecar.delete();
+    }
+
+    private static List<Predicate> where(int field, Predicate.Op op, Field operand) {
+        return Collections.singletonList(new Predicate(field, op, operand));
+    }
+
+    /**
+     * Pages are skipped only when their bounds rule out the predicate.
+     */
+    @Test public void mayMatchInts() throws Exception {
+        ZoneMap zones = new ZoneMap(sidecar, 2, 0);
+        zones.setEmpty(0);
+        zones.add(0, 0, 10);
+        zones.add(0, 0, 20);
+        zones.add(0, 1, -5);
+
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.EQUALS, new IntField(10))));
+        assertFalse(zones.mayMatch(0, where(0, Predicate.Op.EQUALS, new IntField(21))));
+        assertFalse(zones.mayMatch(0, where(0, Predicate.Op.LESS_THAN, new IntField(10))));
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(10))));
+        assertFalse(zones.mayMatch(0, where(0, Predicate.Op.GREATER_THAN, new IntField(20))));
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20))));
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.LIKE, new IntField(15))));
+        assertFalse(zones.mayMatch(0, where(1, Predicate.Op.GREATER_THAN, new IntField(0))));
+    }
+
+    /**
+     * Empty pages never match; unknown pages always do.
+     */
+    @Test public void emptyAndUnknownPages() throws Exception {
+        ZoneMap zones = new ZoneMap(sidecar, 1, 0);
+        zones.setEmpty(0);
+        zones.add(2, 0, 7); // page 1 is unknown, and page 2 too as it was never set empty
+        List<Predicate> p = where(0, Predicate.Op.EQUALS, new IntField(100));
+        assertFalse(zones.mayMatch(0, p));
+        assertTrue(zones.mayMatch(1, p));
+        assertTrue(zones.mayMatch(2, p));
+        assertTrue(zones.mayMatch(3, p));
+    }
+
+    /**
+     * String bounds are prefixes, so values that share the prefix of a
+     * bound are never ruled out.
+     */
+    @Test public void mayMatchStrings() throws Exception {
+        ZoneMap zones = new ZoneMap(sidecar, 1, 0);
+        zones.setEmpty(0);
+        byte[] apple = "applesauce".getBytes();
+        byte[] cherry = "cherry".getBytes();
+        zones.add(0, 0, ZoneMap.key(apple, 0, apple.length));
+        zones.add(0, 0, ZoneMap.key(cherry, 0, cherry.length));
+
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.EQUALS, new StringField("banana", 128))));
+        assertFalse(zones.mayMatch(0, where(0, Predicate.Op.EQUALS, new StringField("apple", 128))));
+        assertFalse(zones.mayMatch(0, where(0, Predicate.Op.GREATER_THAN, new StringField("date", 128))));
+        // no value is less than "applesaua", but it shares the prefix of the minimum
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.LESS_THAN, new StringField("applesaua", 128))));
+        assertEquals(ZoneMap.key(new StringField("cherry", 128)), ZoneMap.key(cherry, 0, cherry.length));
+    }
+
+    /**
+     * Unit test for ZoneMap.flush() and reloading the sidecar file.
+     */
+    @Test public void flush() throws Exception {
+        ZoneMap zones = new ZoneMap(sidecar, 1, 0);
+        for (int i = 0; i < 40; i++) {
+            zones.setEmpty(i);
+            zones.add(i, 0, i * 10);
+        }
+        zones.flush(1234);
+
+        ZoneMap reloaded = new ZoneMap(sidecar, 1, 1234);
+        assertEquals(40, reloaded.numPages());
+        assertFalse(reloaded.mayMatch(3, where(0, Predicate.Op.EQUALS, new IntField(31))));
+        assertTrue(reloaded.mayMatch(3, where(0, Predicate.Op.EQUALS, new IntField(30))));
+
+        // a map written for a data file of another length is out of date
+        assertEquals(0, new ZoneMap(sidecar, 1, 1235).numPages());
+        assertEquals(0, new ZoneMap(sidecar, 2, 1234).numPages());
+    }
+
+    /**
+     * A Filter over a SeqScan of a file sorted on the filtered field only
+     * reads the pages that may hold matching tuples.
+     */
+    @Test public void filterSkipsPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 2000 - i)));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile.zoneMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+
+        final int[] reads = new int[1];
+        HeapFile hf = new HeapFile(f) {
+            public Page readPage(PageId pid) {
+                reads[0]++;
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(hf, Utility.getTupleDesc(2));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(4, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)),
+                new SeqScan(tid, hf.id(), "t"));
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            assertTrue(((IntField) filter.next().getField(0)).getValue() < 100);
+            n++;
+        }
+        filter.close();
+        assertEquals(100, n);
+        assertEquals(1, reads[0]);
+
+        // with projected fields, predicates refer to the fields of the scan
+        reads[0] = 0;
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1990)),
+                new SeqScan(tid, hf.id(), "t", new int[]{1}));
+        filter.open();
+        n = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        assertEquals(11, n);
+        assertEquals(1, reads[0]);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}